@@ -0,0 +1,110 @@
+package org.topiacube.topiaAntiCaveFinder.player;
+
+import org.bukkit.Location;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// compares the dispatch styles BlockChangeTransmitter can use on the real Player signatures;
+// the player is a proxy with a trivial handler, so every variant pays the same receiver cost
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BlockChangeDispatchBenchmark {
+
+    private static final Method REFLECTIVE_SINGLE;
+    private static final Method REFLECTIVE_BULK;
+    private static final MethodHandle HANDLE_SINGLE;
+    private static final MethodHandle HANDLE_BULK;
+
+    static {
+        try {
+            REFLECTIVE_SINGLE = Player.class.getMethod("sendBlockChange", Location.class, BlockData.class);
+            REFLECTIVE_BULK = Player.class.getMethod("sendBlockChanges", Collection.class);
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            HANDLE_SINGLE = lookup.findVirtual(Player.class, "sendBlockChange",
+                MethodType.methodType(void.class, Location.class, BlockData.class));
+            HANDLE_BULK = lookup.findVirtual(Player.class, "sendBlockChanges",
+                MethodType.methodType(void.class, Collection.class));
+        } catch (ReflectiveOperationException ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+
+    private Player player;
+    private Location location;
+    private BlockData data;
+    private Collection<BlockState> states;
+    private int sent;
+
+    @Setup
+    public void setup() {
+        player = (Player) Proxy.newProxyInstance(Player.class.getClassLoader(), new Class<?>[]{Player.class},
+            (proxy, method, args) -> {
+                sent++;
+                return null;
+            });
+        location = new Location(null, 12, 40, -7);
+        // Bukkit.createBlockData needs a running server, so the payloads are inert proxies; the receiver never reads them
+        data = inert(BlockData.class);
+        states = List.of(inert(BlockState.class));
+    }
+
+    private static <T> T inert(Class<T> type) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+            (proxy, method, args) -> null));
+    }
+
+    @Benchmark
+    public void reflectiveSingle(Blackhole blackhole) throws ReflectiveOperationException {
+        REFLECTIVE_SINGLE.invoke(player, location, data);
+        blackhole.consume(sent);
+    }
+
+    @Benchmark
+    public void handleSingle(Blackhole blackhole) throws Throwable {
+        HANDLE_SINGLE.invokeExact(player, location, data);
+        blackhole.consume(sent);
+    }
+
+    @Benchmark
+    public void directSingle(Blackhole blackhole) {
+        player.sendBlockChange(location, data);
+        blackhole.consume(sent);
+    }
+
+    @Benchmark
+    public void reflectiveBulk(Blackhole blackhole) throws ReflectiveOperationException {
+        REFLECTIVE_BULK.invoke(player, states);
+        blackhole.consume(sent);
+    }
+
+    @Benchmark
+    public void handleBulk(Blackhole blackhole) throws Throwable {
+        HANDLE_BULK.invokeExact(player, states);
+        blackhole.consume(sent);
+    }
+
+    @Benchmark
+    public void directBulk(Blackhole blackhole) {
+        player.sendBlockChanges(states);
+        blackhole.consume(sent);
+    }
+}
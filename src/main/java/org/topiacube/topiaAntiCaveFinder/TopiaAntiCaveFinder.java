@@ -23,6 +23,7 @@ public final class TopiaAntiCaveFinder extends JavaPlugin {
         pluginConfig.reload(getConfig());
 
         this.maskManager = new CaveMaskManager(getDataFolder());
+        maskManager.setAutosaveInterval(pluginConfig.getAutosaveIntervalSeconds());
         maskManager.load();
 
         boolean legacyServer = isLegacyMaskingTarget();
@@ -39,7 +40,7 @@ public final class TopiaAntiCaveFinder extends JavaPlugin {
         pluginManager.registerEvents(new PlayerActivityListener(viewService), this);
 
         Bukkit.getOnlinePlayers().forEach(viewService::initializePlayer);
-        getLogger().info("TopiaAntiCaveFinder enabled. Tracking " + maskManager.getTrackedCount() + " artificial cave blocks.");
+        getLogger().info("TopiaAntiCaveFinder enabled. Tracking " + maskManager.getTrackedCount() + " artificial cave blocks in loaded chunks.");
     }
 
     @Override
@@ -48,7 +49,7 @@ public final class TopiaAntiCaveFinder extends JavaPlugin {
             viewService.shutdown();
         }
         if (maskManager != null) {
-            maskManager.save();
+            maskManager.shutdown();
         }
         HandlerList.unregisterAll(this);
     }
@@ -56,6 +57,8 @@ public final class TopiaAntiCaveFinder extends JavaPlugin {
     public void reloadRuntimeConfig() {
         reloadConfig();
         pluginConfig.reload(getConfig());
+        maskManager.setAutosaveInterval(pluginConfig.getAutosaveIntervalSeconds());
+        maskManager.clearMaskCache();
     }
 
     private boolean isLegacyMaskingTarget() {
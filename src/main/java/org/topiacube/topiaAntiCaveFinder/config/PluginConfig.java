@@ -9,8 +9,10 @@ import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.entity.EntityType;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.topiacube.topiaAntiCaveFinder.mask.WorldRegistry;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
@@ -24,14 +26,18 @@ import java.util.Set;
 
 public final class PluginConfig {
 
+    private static final long BASE_SEED = 0x9E3779B97F4A7C15L;
+
     private final JavaPlugin plugin;
     private int checkIntervalTicks;
+    private int autosaveIntervalSeconds;
     private double maxRevealDistance;
     private double minRevealDistance;
     private double revealFovHalfAngleCos;
     private double revealFovAngle;
     private int chunkRadius;
     private int maxBlocksPerPlayer;
+    private int maxBlockChangesPerTick;
     private double interactionRevealRadius;
     private int interactionRevealDurationTicks;
     private double interiorRevealRadius;
@@ -42,6 +48,10 @@ public final class PluginConfig {
     private Set<EntityType> maskableEntities = EnumSet.noneOf(EntityType.class);
     private WeightedMask customDefaultMask;
     private final Map<String, WeightedMask> customWorldMasks = new HashMap<>();
+    // palette and seed bound per world id on first use; dropped whenever the mappings are reloaded
+    private volatile WorldMask[] worldMasks = new WorldMask[0];
+    // used when no world is known; rebuilt with the mappings instead of per call
+    private volatile WorldMask defaultWorldMask = new WorldMask(null, BASE_SEED);
 
     public PluginConfig(JavaPlugin plugin) {
         this.plugin = plugin;
@@ -58,12 +68,14 @@ public final class PluginConfig {
 
         this.chunkRadius = Math.max(1, config.getInt("chunk-radius", 3));
         this.maxBlocksPerPlayer = Math.max(1, config.getInt("max-blocks-per-player", 1024));
+        this.maxBlockChangesPerTick = Math.max(0, config.getInt("max-block-changes-per-tick", 512));
         this.interactionRevealRadius = Math.max(0.0, config.getDouble("interaction-reveal-radius", 6.0));
         this.interactionRevealDurationTicks = Math.max(0, config.getInt("interaction-reveal-duration-ticks", 200));
         this.interiorRevealRadius = Math.max(0.0, config.getDouble("interior-reveal-radius", 8.0));
         this.maskActivationRadius = Math.max(1.0, config.getDouble("mask-activation-radius", 16.0));
 
         this.maskingMode = Math.max(1, Math.min(2, config.getInt("masking-mode", 1)));
+        this.autosaveIntervalSeconds = Math.max(0, config.getInt("autosave-interval-seconds", 300));
         this.excludedWorlds = loadExcludedWorlds(config.getStringList("excluded-worlds"));
         this.maskableMaterials = loadMaterialList(config.getStringList("maskable-materials"), Collections.singletonList("STONE"));
         this.maskableEntities = loadEntityList(config.getStringList("maskable-entities"), defaultEntityList());
@@ -105,6 +117,8 @@ public final class PluginConfig {
     private void loadCustomMasks(ConfigurationSection section) {
         customDefaultMask = null;
         customWorldMasks.clear();
+        worldMasks = new WorldMask[0];
+        defaultWorldMask = new WorldMask(null, BASE_SEED);
         if (section == null) {
             return;
         }
@@ -116,6 +130,7 @@ public final class PluginConfig {
             }
             if (worldKey.equalsIgnoreCase("default")) {
                 customDefaultMask = palette;
+                defaultWorldMask = new WorldMask(palette, BASE_SEED);
             } else {
                 customWorldMasks.put(worldKey.toLowerCase(Locale.ROOT), palette);
             }
@@ -236,6 +251,10 @@ public final class PluginConfig {
         return maxBlocksPerPlayer;
     }
 
+    public int getMaxBlockChangesPerTick() {
+        return maxBlockChangesPerTick;
+    }
+
     public double getInteractionRevealRadius() {
         return interactionRevealRadius;
     }
@@ -268,6 +287,10 @@ public final class PluginConfig {
         return interactionRevealDurationTicks;
     }
 
+    public int getAutosaveIntervalSeconds() {
+        return autosaveIntervalSeconds;
+    }
+
     public int getMaskingMode() {
         return maskingMode;
     }
@@ -307,16 +330,32 @@ public final class PluginConfig {
     }
 
     public BlockData selectCustomMask(World world, int x, int y, int z) {
+        // the returned state is shared between calls and must not be mutated
         if (!isCustomMaskingEnabled()) {
             return null;
         }
-        WeightedMask palette = findCustomMaskPalette(world != null ? world.getName() : null);
+        WorldMask bound = world != null ? worldMask(world) : defaultWorldMask;
+        WeightedMask palette = bound.palette();
         if (palette == null) {
             return null;
         }
-        long mixed = mixCoordinates(world, x, y, z);
-        BlockData data = palette.select(mixed);
-        return data != null ? data.clone() : null;
+        return palette.select(mixCoordinates(bound.seed(), x, y, z));
+    }
+
+    private WorldMask worldMask(World world) {
+        int worldId = WorldRegistry.idOf(world);
+        WorldMask[] current = worldMasks;
+        if (worldId < current.length) {
+            WorldMask bound = current[worldId];
+            if (bound != null) {
+                return bound;
+            }
+        }
+        WorldMask bound = new WorldMask(findCustomMaskPalette(world.getName()), seedFor(world));
+        WorldMask[] grown = Arrays.copyOf(current, Math.max(current.length, worldId + 1));
+        grown[worldId] = bound;
+        worldMasks = grown;
+        return bound;
     }
 
     private WeightedMask findCustomMaskPalette(String worldName) {
@@ -329,15 +368,15 @@ public final class PluginConfig {
         return customDefaultMask;
     }
 
-    private long mixCoordinates(World world, int x, int y, int z) {
-        long seed = 0x9E3779B97F4A7C15L;
-        if (world != null) {
-            long worldSeed = world.getSeed();
-            if (worldSeed == 0L) {
-                worldSeed = hashString(world.getName());
-            }
-            seed ^= mix64(worldSeed);
+    private long seedFor(World world) {
+        long worldSeed = world.getSeed();
+        if (worldSeed == 0L) {
+            worldSeed = hashString(world.getName());
         }
+        return BASE_SEED ^ mix64(worldSeed);
+    }
+
+    private long mixCoordinates(long seed, int x, int y, int z) {
         long combined = seed
             ^ ((long) x * 0xC2B2AE3D27D4EB4FL)
             ^ ((long) y * 0x165667B19E3779F9L)
@@ -390,14 +429,20 @@ public final class PluginConfig {
         return defaults;
     }
 
-    private static final class WeightedMask {
-        private final List<BlockData> entries;
-        private final int[] cumulative;
-        private final int totalWeight;
+    private record WorldMask(WeightedMask palette, long seed) {
+    }
 
-        private WeightedMask(List<BlockData> entries, int[] cumulative, int totalWeight) {
-            this.entries = entries;
-            this.cumulative = cumulative;
+    private static final class WeightedMask {
+        // Vose alias table: a column is picked uniformly, then kept or swapped for its alias by an integer threshold
+        private final BlockData[] states;
+        private final int[] alias;
+        private final long[] threshold;
+        private final long totalWeight;
+
+        private WeightedMask(BlockData[] states, int[] alias, long[] threshold, long totalWeight) {
+            this.states = states;
+            this.alias = alias;
+            this.threshold = threshold;
             this.totalWeight = totalWeight;
         }
 
@@ -406,8 +451,8 @@ public final class PluginConfig {
                 return null;
             }
             List<BlockData> entries = new ArrayList<>();
-            List<Integer> cumulativeList = new ArrayList<>();
-            int total = 0;
+            List<Integer> entryWeights = new ArrayList<>();
+            long total = 0L;
             for (Map.Entry<BlockData, Integer> entry : weights.entrySet()) {
                 int weight = entry.getValue();
                 if (weight <= 0) {
@@ -415,29 +460,55 @@ public final class PluginConfig {
                 }
                 total += weight;
                 entries.add(entry.getKey());
-                cumulativeList.add(total);
+                entryWeights.add(weight);
             }
-            if (entries.isEmpty() || total <= 0) {
+            if (entries.isEmpty() || total <= 0L || total > Integer.MAX_VALUE) {
                 return null;
             }
-            int[] cumulative = new int[cumulativeList.size()];
-            for (int i = 0; i < cumulative.length; i++) {
-                cumulative[i] = cumulativeList.get(i);
+            int count = entries.size();
+            // weights scaled by the column count, so every column holds exactly totalWeight
+            long[] scaled = new long[count];
+            int[] alias = new int[count];
+            long[] threshold = new long[count];
+            int[] small = new int[count];
+            int[] large = new int[count];
+            int smallCount = 0;
+            int largeCount = 0;
+            for (int i = 0; i < count; i++) {
+                scaled[i] = (long) entryWeights.get(i) * count;
+                alias[i] = i;
+                if (scaled[i] < total) {
+                    small[smallCount++] = i;
+                } else {
+                    large[largeCount++] = i;
+                }
+            }
+            while (smallCount > 0 && largeCount > 0) {
+                int less = small[--smallCount];
+                int more = large[--largeCount];
+                threshold[less] = scaled[less];
+                alias[less] = more;
+                scaled[more] -= total - scaled[less];
+                if (scaled[more] < total) {
+                    small[smallCount++] = more;
+                } else {
+                    large[largeCount++] = more;
+                }
+            }
+            while (largeCount > 0) {
+                threshold[large[--largeCount]] = total;
+            }
+            while (smallCount > 0) {
+                threshold[small[--smallCount]] = total;
             }
-            return new WeightedMask(entries, cumulative, total);
+            return new WeightedMask(entries.toArray(new BlockData[0]), alias, threshold, total);
         }
 
         BlockData select(long hash) {
-            if (entries.isEmpty() || totalWeight <= 0) {
-                return null;
-            }
-            int value = (int) Math.floorMod(hash, totalWeight);
-            for (int i = 0; i < cumulative.length; i++) {
-                if (value < cumulative[i]) {
-                    return entries.get(i);
-                }
-            }
-            return entries.get(entries.size() - 1);
+            // low half of the hash picks the column, high half is scaled onto [0, totalWeight)
+            int column = (int) (((hash & 0xFFFFFFFFL) * states.length) >>> 32);
+            long roll = ((hash >>> 32) * totalWeight) >>> 32;
+            return states[roll < threshold[column] ? column : alias[column]];
         }
     }
 }
@@ -7,18 +7,25 @@ import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.block.BlockBreakEvent;
 import org.bukkit.event.block.BlockExplodeEvent;
+import org.bukkit.event.block.BlockFadeEvent;
+import org.bukkit.event.block.BlockFormEvent;
+import org.bukkit.event.block.BlockFromToEvent;
 import org.bukkit.event.block.BlockPistonExtendEvent;
 import org.bukkit.event.block.BlockPistonRetractEvent;
 import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.block.LeavesDecayEvent;
+import org.bukkit.event.entity.EntityChangeBlockEvent;
 import org.bukkit.event.entity.EntityExplodeEvent;
 import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldLoadEvent;
 import org.bukkit.event.world.WorldUnloadEvent;
 import org.topiacube.topiaAntiCaveFinder.config.PluginConfig;
 import org.topiacube.topiaAntiCaveFinder.mask.CaveMaskManager;
 import org.topiacube.topiaAntiCaveFinder.mask.TrackedBlock;
 import org.topiacube.topiaAntiCaveFinder.mask.BlockKey;
 import org.topiacube.topiaAntiCaveFinder.player.PlayerViewService;
-import org.topiacube.topiaAntiCaveFinder.mask.MaskPaletteResolver;
+import org.topiacube.topiaAntiCaveFinder.mask.WorldRegistry;
 
 import java.util.List;
 
@@ -37,6 +44,7 @@ public final class BlockActivityListener implements Listener {
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onBlockBreak(BlockBreakEvent event) {
         Block block = event.getBlock();
+        invalidateAround(block);
         if (config.isWorldExcluded(block.getWorld().getName())) {
             maskManager.untrackBlock(block);
             return;
@@ -58,6 +66,7 @@ public final class BlockActivityListener implements Listener {
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onBlockPlace(BlockPlaceEvent event) {
         Block block = event.getBlockPlaced();
+        invalidateAround(block);
         if (config.isWorldExcluded(block.getWorld().getName())) {
             maskManager.untrackBlock(block);
             return;
@@ -83,7 +92,7 @@ public final class BlockActivityListener implements Listener {
             return;
         }
 
-        BlockData palette = MaskPaletteResolver.resolveFromNeighbors(block, config);
+        BlockData palette = maskManager.resolveMask(key, block, config);
         if (palette != null) {
             maskManager.trackBlock(block, palette);
         }
@@ -103,20 +112,53 @@ public final class BlockActivityListener implements Listener {
         trackBlocks(event.blockList());
     }
 
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockFromTo(BlockFromToEvent event) {
+        invalidateAround(event.getToBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockForm(BlockFormEvent event) {
+        invalidateAround(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockFade(BlockFadeEvent event) {
+        invalidateAround(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onLeavesDecay(LeavesDecayEvent event) {
+        invalidateAround(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntityChangeBlock(EntityChangeBlockEvent event) {
+        invalidateAround(event.getBlock());
+    }
+
     @EventHandler(priority = EventPriority.MONITOR)
     public void onChunkLoad(ChunkLoadEvent event) {
-        if (viewService == null) {
-            return;
-        }
         org.bukkit.Chunk chunk = event.getChunk();
         String worldName = chunk.getWorld().getName();
         if (config.isWorldExcluded(worldName)) {
-            return;
-        }
-        if (!maskManager.hasTrackedBlocks(worldName, chunk.getX(), chunk.getZ())) {
-            return;
-        }
-        viewService.handleChunkLoad(chunk);
+            return;
+        }
+        // the stored blocks are read off the main thread; viewers are updated once they are resident
+        maskManager.loadChunk(worldName, chunk.getX(), chunk.getZ()).thenAccept(hasTrackedBlocks -> {
+            if (hasTrackedBlocks && viewService != null) {
+                viewService.handleChunkLoad(chunk);
+            }
+        });
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkUnload(ChunkUnloadEvent event) {
+        org.bukkit.Chunk chunk = event.getChunk();
+        maskManager.unloadChunk(chunk.getWorld().getName(), chunk.getX(), chunk.getZ());
+        if (viewService != null) {
+            viewService.handleChunkUnload(chunk);
+        }
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
@@ -124,6 +166,8 @@ public final class BlockActivityListener implements Listener {
         event.getBlocks().forEach(block -> {
             BlockKey key = BlockKey.from(block);
             maskManager.untrackBlock(key);
+            invalidateAround(block);
+            invalidateAround(block.getRelative(event.getDirection()));
             if (viewService != null) {
                 viewService.invalidateBlock(key);
             }
@@ -135,20 +179,31 @@ public final class BlockActivityListener implements Listener {
         event.getBlocks().forEach(block -> {
             BlockKey key = BlockKey.from(block);
             maskManager.untrackBlock(key);
+            invalidateAround(block);
+            invalidateAround(block.getRelative(event.getDirection()));
             if (viewService != null) {
                 viewService.invalidateBlock(key);
             }
         });
     }
 
+    @EventHandler(priority = EventPriority.LOWEST)
+    public void onWorldLoad(WorldLoadEvent event) {
+        WorldRegistry.register(event.getWorld());
+    }
+
     @EventHandler(priority = EventPriority.MONITOR)
     public void onWorldUnload(WorldUnloadEvent event) {
-        maskManager.purgeWorld(event.getWorld());
+        maskManager.unloadWorld(event.getWorld());
+        if (viewService != null) {
+            viewService.handleWorldUnload(event.getWorld());
+        }
     }
 
     private void trackBlocks(List<Block> blocks) {
         for (Block block : blocks) {
             BlockKey key = BlockKey.from(block);
+            invalidateAround(block);
             if (shouldTrack(block)) {
                 maskManager.trackBlock(block);
             } else {
@@ -160,6 +215,13 @@ public final class BlockActivityListener implements Listener {
         }
     }
 
+    private void invalidateAround(Block block) {
+        maskManager.invalidateMasksAround(block);
+        if (viewService != null) {
+            viewService.invalidateSight(block);
+        }
+    }
+
     private boolean shouldTrack(Block block) {
         return config.shouldTrackBlock(block.getWorld(), block.getType());
     }
@@ -5,47 +5,45 @@ import org.bukkit.Location;
 import org.bukkit.World;
 import org.bukkit.block.Block;
 
-import java.util.concurrent.ConcurrentHashMap;
-
 public final class BlockKey {
-    private static final ConcurrentHashMap<String, String> WORLD_NAME_CACHE = new ConcurrentHashMap<>();
-
-    private final String worldName;
+    private final int worldId;
     private final int x;
     private final int y;
     private final int z;
 
     public BlockKey(String worldName, int x, int y, int z) {
-        this(worldName, x, y, z, false);
+        this(WorldRegistry.idOf(worldName), x, y, z);
     }
 
-    private BlockKey(String worldName, int x, int y, int z, boolean assumeInterned) {
-        this.worldName = canonicalizeWorldName(worldName, assumeInterned);
+    private BlockKey(int worldId, int x, int y, int z) {
+        this.worldId = worldId;
         this.x = x;
         this.y = y;
         this.z = z;
     }
 
     public static BlockKey of(String worldName, int x, int y, int z) {
-        return new BlockKey(worldName, x, y, z, false);
+        return new BlockKey(WorldRegistry.idOf(worldName), x, y, z);
     }
 
-    public static BlockKey ofInterned(String worldName, int x, int y, int z) {
-        return new BlockKey(worldName, x, y, z, true);
+    public static BlockKey of(int worldId, int x, int y, int z) {
+        return new BlockKey(worldId, x, y, z);
     }
 
     public static String canonicalWorldName(String worldName) {
-        return canonicalizeWorldName(worldName, false);
+        return WorldRegistry.nameOf(WorldRegistry.idOf(worldName));
     }
 
     public static BlockKey from(Block block) {
-        World world = block.getWorld();
-        String worldName = world.getName();
-        return new BlockKey(worldName, block.getX(), block.getY(), block.getZ(), false);
+        return new BlockKey(WorldRegistry.idOf(block.getWorld()), block.getX(), block.getY(), block.getZ());
+    }
+
+    public int getWorldId() {
+        return worldId;
     }
 
     public String getWorldName() {
-        return worldName;
+        return WorldRegistry.nameOf(worldId);
     }
 
     public int getX() {
@@ -61,11 +59,11 @@ public final class BlockKey {
     }
 
     public ChunkKey toChunkKey() {
-        return new ChunkKey(worldName, Math.floorDiv(x, 16), Math.floorDiv(z, 16));
+        return ChunkKey.of(worldId, Math.floorDiv(x, 16), Math.floorDiv(z, 16));
     }
 
     public Location toLocation() {
-        World world = Bukkit.getWorld(worldName);
+        World world = Bukkit.getWorld(getWorldName());
         if (world == null) {
             return null;
         }
@@ -73,7 +71,7 @@ public final class BlockKey {
     }
 
     public Location toCenterLocation() {
-        World world = Bukkit.getWorld(worldName);
+        World world = Bukkit.getWorld(getWorldName());
         if (world == null) {
             return null;
         }
@@ -81,7 +79,7 @@ public final class BlockKey {
     }
 
     public Block toBlock() {
-        World world = Bukkit.getWorld(worldName);
+        World world = Bukkit.getWorld(getWorldName());
         if (world == null) {
             return null;
         }
@@ -96,31 +94,15 @@ public final class BlockKey {
         if (!(o instanceof BlockKey blockKey)) {
             return false;
         }
-        if (x != blockKey.x || y != blockKey.y || z != blockKey.z) {
-            return false;
-        }
-        if (worldName == blockKey.worldName) {
-            return true;
-        }
-        return worldName != null && worldName.equals(blockKey.worldName);
+        return x == blockKey.x && y == blockKey.y && z == blockKey.z && worldId == blockKey.worldId;
     }
 
     @Override
     public int hashCode() {
-        int result = worldName != null ? worldName.hashCode() : 0;
+        int result = worldId;
         result = (31 * result) + x;
         result = (31 * result) + y;
         result = (31 * result) + z;
         return result;
     }
-
-    private static String canonicalizeWorldName(String worldName, boolean assumeInterned) {
-        if (worldName == null) {
-            return null;
-        }
-        if (assumeInterned) {
-            return worldName;
-        }
-        return WORLD_NAME_CACHE.computeIfAbsent(worldName, key -> key);
-    }
 }
@@ -3,42 +3,82 @@ package org.topiacube.topiaAntiCaveFinder.mask;
 import org.bukkit.Bukkit;
 import org.bukkit.block.data.BlockData;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 final class BlockPalette {
 
+    // BlockData equality and hashing go through the server's interned block state, so no string is built on a hit
+    private final Map<BlockData, Integer> indexByData = new HashMap<>();
     private final Map<String, Integer> indexByState = new HashMap<>();
-    private final List<BlockData> states = new ArrayList<>();
-    private final List<String> serializedStates = new ArrayList<>();
+    // tables are filled before count is raised, so async readers never need the manager lock
+    private volatile BlockData[] states = new BlockData[16];
+    private volatile String[] serializedStates = new String[16];
+    private volatile int count;
 
     void clear() {
+        indexByData.clear();
         indexByState.clear();
-        states.clear();
-        serializedStates.clear();
+        count = 0;
+        states = new BlockData[16];
+        serializedStates = new String[16];
     }
 
     int getOrCreateId(BlockData data) {
+        Integer existing = indexByData.get(data);
+        if (existing != null) {
+            return existing;
+        }
         String serialized = data.getAsString();
+        existing = indexByState.get(serialized);
+        if (existing == null) {
+            existing = append(serialized, Bukkit.createBlockData(serialized));
+        }
+        // keyed by a private copy, callers are free to keep mutating the instance they passed in
+        indexByData.put(data.clone(), existing);
+        return existing;
+    }
+
+    int resolve(String serialized) {
+        // looks the string up before parsing it, so each distinct state is only parsed once
         Integer existing = indexByState.get(serialized);
         if (existing != null) {
             return existing;
         }
-        BlockData stored = Bukkit.createBlockData(serialized);
-        int id = states.size();
-        states.add(stored);
-        serializedStates.add(serialized);
-        indexByState.put(serialized, id);
+        int id = getOrCreateId(Bukkit.createBlockData(serialized));
+        indexByState.putIfAbsent(serialized, id);
         return id;
     }
 
     BlockData get(int id) {
-        return states.get(id);
+        return states[id];
     }
 
     String getSerialized(int id) {
-        return serializedStates.get(id);
+        return serializedStates[id];
+    }
+
+    List<String> serializedSnapshot() {
+        int size = count;
+        return List.of(Arrays.copyOf(serializedStates, size));
+    }
+
+    private int append(String serialized, BlockData stored) {
+        int id = count;
+        BlockData[] stateTable = states;
+        String[] serializedTable = serializedStates;
+        if (id == stateTable.length) {
+            stateTable = Arrays.copyOf(stateTable, id << 1);
+            serializedTable = Arrays.copyOf(serializedTable, id << 1);
+        }
+        stateTable[id] = stored;
+        serializedTable[id] = serialized;
+        states = stateTable;
+        serializedStates = serializedTable;
+        indexByState.put(serialized, id);
+        count = id + 1;
+        return id;
     }
 }
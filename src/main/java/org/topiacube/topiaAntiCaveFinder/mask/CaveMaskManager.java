@@ -1,30 +1,40 @@
 package org.topiacube.topiaAntiCaveFinder.mask;
 
 import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
 import org.bukkit.Material;
 import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.block.data.BlockData;
 import org.bukkit.configuration.InvalidConfigurationException;
 import org.bukkit.configuration.file.YamlConfiguration;
+import org.topiacube.topiaAntiCaveFinder.config.PluginConfig;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntUnaryOperator;
+import java.util.function.ToIntFunction;
 import java.util.logging.Level;
 
 public final class CaveMaskManager {
@@ -33,16 +43,38 @@ public final class CaveMaskManager {
     private static final int STORAGE_VERSION = 2;
     static final int BLOCK_INDEX_Y_OFFSET = 8192;
     static final int LOCAL_COORD_MASK = 0xF;
+    private static final long JOURNAL_FLUSH_INTERVAL_MILLIS = 1000L;
+    private static final long JOURNAL_CHECKPOINT_BYTES = 4L * 1024L * 1024L;
 
     private final File storageFile;
     private final File legacyStorageFile;
+    private final MaskJournal journal;
+    private final RegionStorage regionStorage;
+    private final StoragePalette storagePalette;
 
-    private final Map<ChunkKey, ChunkBlockStore> chunkStores = new HashMap<>();
+    private final Map<Integer, ChunkStoreIndex> worldStores = new ConcurrentHashMap<>();
+    private final Set<ChunkKey> dirtyChunks = new HashSet<>();
+    private final Map<ChunkKey, ChunkBlockStore> pendingWrites = new ConcurrentHashMap<>();
+    // chunks whose region record is being read on the loader thread; an entry removed early drops the read
+    private final Map<ChunkKey, CompletableFuture<Boolean>> loadingChunks = new HashMap<>();
+    // immutable per-world indexes read by view computations without locking; swapped by publishSnapshots()
+    private volatile ChunkStoreIndex[] publishedStores = new ChunkStoreIndex[0];
+    // what the next published index of each world will hold, and which worlds changed since the last swap
+    private ChunkStoreIndex[] publishDrafts = new ChunkStoreIndex[0];
+    private final BitSet changedPublishWorlds = new BitSet();
+    private final Set<ChunkKey> unpublishedChunks = new HashSet<>();
+    // which chunks have published blocks, so idle players can be skipped without touching any store
+    private final Map<Integer, ChunkOccupancy> occupancy = new ConcurrentHashMap<>();
     private final BlockPalette palette = new BlockPalette();
+    private final MaskCache maskCache = new MaskCache();
 
-    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final StampedLock lock = new StampedLock();
 
     private int trackedBlockCount;
+    private ScheduledExecutorService storageExecutor;
+    private ExecutorService loaderExecutor;
+    private ScheduledFuture<?> autosaveTask;
+    private int autosaveIntervalSeconds;
 
     public CaveMaskManager(File dataFolder) {
         if (!dataFolder.exists() && !dataFolder.mkdirs()) {
@@ -50,29 +82,222 @@ public final class CaveMaskManager {
         }
         this.storageFile = new File(dataFolder, "tracked-blocks.dat");
         this.legacyStorageFile = new File(dataFolder, "tracked-blocks.yml");
+        this.journal = new MaskJournal(new File(dataFolder, "tracked-blocks.journal"));
+        this.regionStorage = new RegionStorage(new File(dataFolder, "regions"));
+        this.storagePalette = new StoragePalette(new File(dataFolder, "tracked-blocks.palette"));
     }
 
     public void load() {
-        lock.writeLock().lock();
+        // StampedLock is not reentrant, so the migration checkpoint runs between the two locked phases
+        File migratedFile = null;
+        boolean recovered;
+        long stamp = lock.writeLock();
         try {
-            chunkStores.clear();
+            worldStores.clear();
+            dirtyChunks.clear();
+            pendingWrites.clear();
+            loadingChunks.clear();
+            clearPublishedLocked();
+            occupancy.clear();
+            unpublishedChunks.clear();
+            maskCache.clear();
             palette.clear();
             trackedBlockCount = 0;
+            try {
+                storagePalette.load();
+            } catch (IOException exception) {
+                Bukkit.getLogger().log(Level.SEVERE, "Failed to read tracked block state palette", exception);
+            }
             if (storageFile.exists()) {
                 loadBinary(storageFile);
-                return;
-            }
-            if (legacyStorageFile.exists()) {
+                migratedFile = storageFile;
+            } else if (legacyStorageFile.exists()) {
                 loadLegacyYaml(legacyStorageFile);
-                try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(storageFile)))) {
-                    writeToStream(output);
-                } catch (IOException exception) {
-                    Bukkit.getLogger().log(Level.SEVERE, "Failed to migrate tracked block storage", exception);
+                migratedFile = legacyStorageFile;
+            }
+            worldStores.forEach((worldId, index) -> index.forEach((chunkKey, store) ->
+                markDirtyLocked(worldId, ChunkStoreIndex.chunkX(chunkKey), ChunkStoreIndex.chunkZ(chunkKey), store)));
+            if (journal.hasRecordsOnDisk()) {
+                int replayed = journal.replay(new JournalReplayHandler());
+                Bukkit.getLogger().info("Replayed " + replayed + " tracked block journal records.");
+            }
+            recovered = !dirtyChunks.isEmpty();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        if (recovered && checkpoint() && migratedFile != null) {
+            File backup = new File(migratedFile.getParentFile(), migratedFile.getName() + ".migrated");
+            if (migratedFile.renameTo(backup)) {
+                Bukkit.getLogger().info("Migrated tracked block storage to region files, kept " + backup.getName() + " as backup.");
+            }
+        }
+        stamp = lock.writeLock();
+        try {
+            if (dirtyChunks.isEmpty()) {
+                worldStores.clear();
+                clearPublishedLocked();
+                occupancy.clear();
+                unpublishedChunks.clear();
+                trackedBlockCount = 0;
+            }
+            List<ChunkKey> loadedChunks = new ArrayList<>();
+            for (World world : Bukkit.getWorlds()) {
+                int worldId = WorldRegistry.register(world);
+                for (Chunk chunk : world.getLoadedChunks()) {
+                    if (residentStore(worldId, chunk.getX(), chunk.getZ()) == null) {
+                        loadedChunks.add(ChunkKey.of(worldId, chunk.getX(), chunk.getZ()));
+                    }
                 }
             }
+            preloadChunksLocked(loadedChunks);
+            publishChangesLocked();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        startStorageExecutor();
+    }
+
+    private void startStorageExecutor() {
+        if (storageExecutor != null) {
+            return;
+        }
+        storageExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "TopiaAntiCaveFinder-Storage");
+            thread.setDaemon(true);
+            return thread;
+        });
+        storageExecutor.scheduleWithFixedDelay(this::flushStorage,
+            JOURNAL_FLUSH_INTERVAL_MILLIS, JOURNAL_FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        scheduleAutosave();
+        loaderExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "TopiaAntiCaveFinder-Loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public synchronized void setAutosaveInterval(int seconds) {
+        this.autosaveIntervalSeconds = Math.max(0, seconds);
+        scheduleAutosave();
+    }
+
+    private synchronized void scheduleAutosave() {
+        if (autosaveTask != null) {
+            autosaveTask.cancel(false);
+            autosaveTask = null;
+        }
+        if (storageExecutor != null && autosaveIntervalSeconds > 0) {
+            autosaveTask = storageExecutor.scheduleWithFixedDelay(this::runCheckpoint,
+                autosaveIntervalSeconds, autosaveIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    private void flushStorage() {
+        // storage thread only
+        try {
+            journal.flush();
+            writePendingChunks();
+            if (journal.sizeOnDisk() >= JOURNAL_CHECKPOINT_BYTES) {
+                checkpoint();
+            }
+        } catch (Throwable throwable) {
+            Bukkit.getLogger().log(Level.SEVERE, "Failed to flush tracked block storage", throwable);
+        }
+    }
+
+    private void runCheckpoint() {
+        // storage thread only
+        try {
+            journal.flush();
+            checkpoint();
+        } catch (Throwable throwable) {
+            Bukkit.getLogger().log(Level.SEVERE, "Failed to save tracked block storage", throwable);
+        }
+    }
+
+    private boolean checkpoint() {
+        // storage thread, or the main thread while the storage thread is not running
+        long stamp = lock.writeLock();
+        try {
+            if (dirtyChunks.isEmpty() && pendingWrites.isEmpty() && !journal.hasRecordsOnDisk()) {
+                return true;
+            }
+            // only marks the dirty stores as shared; encoding happens after the lock is released
+            for (ChunkKey chunkKey : dirtyChunks) {
+                stageChunkLocked(chunkKey, residentStore(chunkKey.getWorldId(), chunkKey.getX(), chunkKey.getZ()));
+            }
+            dirtyChunks.clear();
+            // every mutation journals under the write lock, so all pending records are staged above
+            journal.discardPending();
         } finally {
-            lock.writeLock().unlock();
+            lock.unlockWrite(stamp);
+        }
+        if (!writePendingChunks()) {
+            return false;
+        }
+        try {
+            journal.truncate();
+            return true;
+        } catch (IOException exception) {
+            Bukkit.getLogger().log(Level.SEVERE, "Failed to truncate tracked block journal", exception);
+            return false;
+        }
+    }
+
+    private void stageChunkLocked(ChunkKey chunkKey, ChunkBlockStore store) {
+        // write lock guaranteed by caller
+        if (store != null) {
+            store.clearDirty();
+        }
+        if (store == null || store.isEmpty()) {
+            pendingWrites.put(chunkKey, ChunkBlockStore.EMPTY);
+            ChunkStoreIndex index = worldStores.get(chunkKey.getWorldId());
+            if (index != null) {
+                index.remove(ChunkStoreIndex.chunkKey(chunkKey.getX(), chunkKey.getZ()));
+            }
+            publishLocked(chunkKey.getWorldId(), chunkKey.getX(), chunkKey.getZ(), null);
+            return;
+        }
+        store.markShared();
+        pendingWrites.put(chunkKey, store);
+    }
+
+    private boolean writePendingChunks() {
+        if (pendingWrites.isEmpty()) {
+            return true;
+        }
+        // the palette is safe to read without the lock; ids in the staged stores were all appended before staging
+        List<String> serializedStates = palette.serializedSnapshot();
+        Map<RegionStorage.RegionKey, Map<ChunkKey, ChunkBlockStore>> byRegion = new HashMap<>();
+        for (Map.Entry<ChunkKey, ChunkBlockStore> entry : pendingWrites.entrySet()) {
+            ChunkKey chunkKey = entry.getKey();
+            RegionStorage.RegionKey regionKey = RegionStorage.RegionKey.of(chunkKey.getWorldName(), chunkKey.getX(), chunkKey.getZ());
+            byRegion.computeIfAbsent(regionKey, unused -> new HashMap<>()).put(chunkKey, entry.getValue());
+        }
+        int[] storageIds = new int[serializedStates.size()];
+        Arrays.fill(storageIds, -1);
+        IntUnaryOperator toStorageId = paletteId -> {
+            if (storageIds[paletteId] == -1) {
+                storageIds[paletteId] = storagePalette.idOf(serializedStates.get(paletteId));
+            }
+            return storageIds[paletteId];
+        };
+        boolean success = true;
+        for (Map.Entry<RegionStorage.RegionKey, Map<ChunkKey, ChunkBlockStore>> region : byRegion.entrySet()) {
+            Map<ChunkKey, ChunkBlockStore> stores = region.getValue();
+            Map<Integer, ChunkRecord> updates = new HashMap<>();
+            stores.forEach((chunkKey, store) -> updates.put(RegionStorage.localIndex(chunkKey.getX(), chunkKey.getZ()),
+                ChunkRecordCodec.encode(store, toStorageId)));
+            try {
+                storagePalette.flush();
+                regionStorage.write(region.getKey(), updates);
+                stores.forEach(pendingWrites::remove);
+            } catch (IOException exception) {
+                Bukkit.getLogger().log(Level.SEVERE, "Failed to write tracked block region " + region.getKey(), exception);
+                success = false;
+            }
         }
+        return success;
     }
 
     private void loadBinary(File file) {
@@ -102,11 +327,10 @@ public final class CaveMaskManager {
     private void loadBinaryV1(DataInputStream input, int chunkCount) throws IOException {
         // write lock guaranteed by caller
         for (int i = 0; i < chunkCount; i++) {
-            String worldName = input.readUTF();
+            int worldId = WorldRegistry.idOf(input.readUTF());
             int chunkX = input.readInt();
             int chunkZ = input.readInt();
-            ChunkKey chunkKey = new ChunkKey(worldName, chunkX, chunkZ);
-            ChunkBlockStore store = getOrCreateChunkStore(chunkKey);
+            ChunkBlockStore store = getOrCreateChunkStore(worldId, chunkX, chunkZ);
 
             int blockCount = input.readInt();
             for (int b = 0; b < blockCount; b++) {
@@ -115,8 +339,7 @@ public final class CaveMaskManager {
                 int z = input.readInt();
                 String dataString = input.readUTF();
                 try {
-                    BlockData data = Bukkit.createBlockData(dataString);
-                    int paletteId = palette.getOrCreateId(data);
+                    int paletteId = palette.resolve(dataString);
                     int index = toLocalIndex(x, y, z);
                     if (store.upsert(index, paletteId)) {
                         trackedBlockCount++;
@@ -131,19 +354,17 @@ public final class CaveMaskManager {
     private void loadBinaryV2(DataInputStream input, int chunkCount) throws IOException {
         // write lock guaranteed by caller
         for (int i = 0; i < chunkCount; i++) {
-            String worldName = input.readUTF();
+            int worldId = WorldRegistry.idOf(input.readUTF());
             int chunkX = input.readInt();
             int chunkZ = input.readInt();
-            ChunkKey chunkKey = new ChunkKey(worldName, chunkX, chunkZ);
-            ChunkBlockStore store = getOrCreateChunkStore(chunkKey);
+            ChunkBlockStore store = getOrCreateChunkStore(worldId, chunkX, chunkZ);
 
             int paletteSize = input.readInt();
             int[] globalPaletteIds = new int[paletteSize];
             for (int p = 0; p < paletteSize; p++) {
                 String dataString = input.readUTF();
                 try {
-                    BlockData data = Bukkit.createBlockData(dataString);
-                    globalPaletteIds[p] = palette.getOrCreateId(data);
+                    globalPaletteIds[p] = palette.resolve(dataString);
                 } catch (IllegalArgumentException ex) {
                     Bukkit.getLogger().log(Level.WARNING, "Skipping invalid block data while reading storage", ex);
                     globalPaletteIds[p] = -1;
@@ -216,8 +437,7 @@ public final class CaveMaskManager {
                 continue;
             }
 
-            ChunkKey chunkKey = new ChunkKey(worldName, Math.floorDiv(x, 16), Math.floorDiv(z, 16));
-            ChunkBlockStore store = getOrCreateChunkStore(chunkKey);
+            ChunkBlockStore store = getOrCreateChunkStore(WorldRegistry.idOf(worldName), Math.floorDiv(x, 16), Math.floorDiv(z, 16));
             int paletteId = palette.getOrCreateId(blockData);
             int index = toLocalIndex(x, y, z);
             if (store.upsert(index, paletteId)) {
@@ -227,70 +447,125 @@ public final class CaveMaskManager {
     }
 
     public void save() {
-        lock.readLock().lock();
-        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(storageFile)))) {
-            writeToStream(output);
-        } catch (IOException e) {
-            Bukkit.getLogger().log(Level.SEVERE, "Failed to save tracked block storage", e);
-        } finally {
-            lock.readLock().unlock();
+        // hands the snapshot to the storage thread when it runs, so the caller never waits on disk
+        ScheduledExecutorService executor = storageExecutor;
+        if (executor != null) {
+            executor.execute(this::runCheckpoint);
+        } else {
+            checkpoint();
         }
     }
 
-    private void writeToStream(DataOutputStream output) throws IOException {
-        output.writeInt(STORAGE_MAGIC);
-        output.writeInt(STORAGE_VERSION);
-        output.writeInt(chunkStores.size());
-        for (Map.Entry<ChunkKey, ChunkBlockStore> entry : chunkStores.entrySet()) {
-            ChunkKey chunkKey = entry.getKey();
-            ChunkBlockStore store = entry.getValue();
-            output.writeUTF(chunkKey.getWorldName());
-            output.writeInt(chunkKey.getX());
-            output.writeInt(chunkKey.getZ());
-
-            int blockCount = store.size();
-            int[] indices = new int[blockCount];
-            int[] localPaletteIds = new int[blockCount];
-            IntIntHashMap paletteRemap = new IntIntHashMap();
-            ArrayList<Integer> localPalette = new ArrayList<>();
-
-            final int[] position = {0};
-            store.forEach((index, globalPaletteId) -> {
-                int local = paletteRemap.get(globalPaletteId);
-                if (local == IntIntHashMap.NO_VALUE) {
-                    local = localPalette.size();
-                    paletteRemap.put(globalPaletteId, local);
-                    localPalette.add(globalPaletteId);
+    public void shutdown() {
+        if (loaderExecutor != null) {
+            loaderExecutor.shutdown();
+            try {
+                if (!loaderExecutor.awaitTermination(30L, TimeUnit.SECONDS)) {
+                    Bukkit.getLogger().warning("Tracked block loader thread did not stop in time.");
                 }
-                indices[position[0]] = index;
-                localPaletteIds[position[0]] = local;
-                position[0]++;
-            });
+            } catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            loaderExecutor = null;
+        }
+        if (storageExecutor != null) {
+            storageExecutor.shutdown();
+            try {
+                if (!storageExecutor.awaitTermination(30L, TimeUnit.SECONDS)) {
+                    Bukkit.getLogger().warning("Tracked block storage thread did not stop in time.");
+                }
+            } catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            storageExecutor = null;
+            autosaveTask = null;
+        }
+        try {
+            journal.flush();
+        } catch (IOException exception) {
+            Bukkit.getLogger().log(Level.SEVERE, "Failed to flush tracked block journal", exception);
+        }
+        checkpoint();
+    }
+
+    public CompletableFuture<Boolean> loadChunk(String worldName, int chunkX, int chunkZ) {
+        // completes with whether the chunk holds tracked blocks once they are resident, on whichever thread installed them
+        return loadChunk(ChunkKey.of(WorldRegistry.idOf(worldName), chunkX, chunkZ));
+    }
+
+    private CompletableFuture<Boolean> loadChunk(ChunkKey chunkKey) {
+        CompletableFuture<Boolean> future;
+        long stamp = lock.writeLock();
+        try {
+            ChunkBlockStore store = residentStore(chunkKey.getWorldId(), chunkKey.getX(), chunkKey.getZ());
+            if (store != null) {
+                return CompletableFuture.completedFuture(!store.isEmpty());
+            }
+            // a staged store is newer than the region file and already in memory, so nothing has to be read
+            ChunkBlockStore pending = pendingWrites.get(chunkKey);
+            if (pending != null) {
+                return CompletableFuture.completedFuture(installLocked(chunkKey, pending));
+            }
+            future = loadingChunks.get(chunkKey);
+            if (future != null) {
+                return future;
+            }
+            future = new CompletableFuture<>();
+            loadingChunks.put(chunkKey, future);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        CompletableFuture<Boolean> loading = future;
+        ExecutorService executor = loaderExecutor;
+        if (executor != null) {
+            try {
+                executor.execute(() -> readAndInstall(chunkKey, loading));
+                return loading;
+            } catch (RejectedExecutionException rejected) {
+                // shutting down; read on the calling thread instead
+            }
+        }
+        readAndInstall(chunkKey, loading);
+        return loading;
+    }
 
-            int paletteSize = localPalette.size();
-            output.writeInt(paletteSize);
-            for (int i = 0; i < paletteSize; i++) {
-                int globalPaletteId = localPalette.get(i);
-                output.writeUTF(palette.getSerialized(globalPaletteId));
-            }
-            boolean paletteFitsInByte = paletteSize <= 255;
-            output.writeBoolean(paletteFitsInByte);
-            output.writeInt(blockCount);
-            for (int i = 0; i < blockCount; i++) {
-                int index = indices[i];
-                int y = (index >>> 8) - BLOCK_INDEX_Y_OFFSET;
-                int packedLocal = index & 0xFF;
-                output.writeShort((short) y);
-                output.writeByte((byte) packedLocal);
-                int localPaletteId = localPaletteIds[i];
-                if (paletteFitsInByte) {
-                    output.writeByte((byte) localPaletteId);
-                } else {
-                    output.writeShort((short) localPaletteId);
+    private void readAndInstall(ChunkKey chunkKey, CompletableFuture<Boolean> future) {
+        // the region file is read without the manager lock; only decoding and installing hold it
+        boolean hasBlocks = false;
+        try {
+            ChunkRecord record = readRecord(chunkKey);
+            long stamp = lock.writeLock();
+            try {
+                if (loadingChunks.remove(chunkKey, future)
+                    && residentStore(chunkKey.getWorldId(), chunkKey.getX(), chunkKey.getZ()) == null) {
+                    hasBlocks = installLocked(chunkKey, decodeChunk(chunkKey, record, palette::resolve));
                 }
+            } finally {
+                lock.unlockWrite(stamp);
             }
+        } catch (Throwable throwable) {
+            Bukkit.getLogger().log(Level.SEVERE, "Failed to load tracked blocks for chunk "
+                + chunkKey.getWorldName() + " " + chunkKey.getX() + "," + chunkKey.getZ(), throwable);
+        } finally {
+            future.complete(hasBlocks);
+        }
+    }
+
+    private void awaitResident(int worldId, int chunkX, int chunkZ) {
+        // main thread; waits outside the lock, so a change never lands on a store that a pending read would replace
+        loadChunk(ChunkKey.of(worldId, chunkX, chunkZ)).join();
+    }
+
+    public void unloadChunk(String worldName, int chunkX, int chunkZ) {
+        int worldId = WorldRegistry.idOf(worldName);
+        maskCache.removeChunk(worldId, ChunkStoreIndex.chunkKey(chunkX, chunkZ));
+        long stamp = lock.writeLock();
+        try {
+            loadingChunks.remove(ChunkKey.of(worldId, chunkX, chunkZ));
+            evictLocked(worldId, chunkX, chunkZ);
+        } finally {
+            lock.unlockWrite(stamp);
         }
-        output.flush();
     }
 
     public void trackBlock(Block block) {
@@ -298,23 +573,26 @@ public final class CaveMaskManager {
     }
 
     public void trackBlock(Block block, BlockData originalData) {
-        lock.writeLock().lock();
+        Material type = block.getType();
+        if (type == Material.AIR || type == Material.CAVE_AIR || type == Material.VOID_AIR) {
+            return;
+        }
+        BlockKey key = BlockKey.from(block);
+        int chunkX = key.getX() >> 4;
+        int chunkZ = key.getZ() >> 4;
+        awaitResident(key.getWorldId(), chunkX, chunkZ);
+        long stamp = lock.writeLock();
         try {
-            Material type = block.getType();
-            if (type == Material.AIR || type == Material.CAVE_AIR || type == Material.VOID_AIR) {
-                return;
-            }
-
-            BlockKey key = BlockKey.from(block);
-            ChunkKey chunkKey = key.toChunkKey();
-            ChunkBlockStore store = getOrCreateChunkStore(chunkKey);
+            ChunkBlockStore store = getOrCreateChunkStore(key.getWorldId(), chunkX, chunkZ);
             int paletteId = palette.getOrCreateId(originalData);
             int index = toLocalIndex(key.getX(), key.getY(), key.getZ());
             if (store.upsert(index, paletteId)) {
                 trackedBlockCount++;
             }
+            markDirtyLocked(key.getWorldId(), chunkX, chunkZ, store);
+            journal.recordTrack(key.getWorldName(), key.getX(), key.getY(), key.getZ(), paletteId, palette.getSerialized(paletteId));
         } finally {
-            lock.writeLock().unlock();
+            lock.unlockWrite(stamp);
         }
     }
 
@@ -323,22 +601,23 @@ public final class CaveMaskManager {
     }
 
     public void untrackBlock(BlockKey key) {
-        lock.writeLock().lock();
+        int chunkX = key.getX() >> 4;
+        int chunkZ = key.getZ() >> 4;
+        awaitResident(key.getWorldId(), chunkX, chunkZ);
+        long stamp = lock.writeLock();
         try {
-            ChunkKey chunkKey = key.toChunkKey();
-            ChunkBlockStore store = chunkStores.get(chunkKey);
+            ChunkBlockStore store = writableStoreLocked(key.getWorldId(), chunkX, chunkZ);
             if (store == null) {
                 return;
             }
             int index = toLocalIndex(key.getX(), key.getY(), key.getZ());
             if (store.remove(index)) {
                 trackedBlockCount--;
-                if (store.isEmpty()) {
-                    chunkStores.remove(chunkKey);
-                }
+                markDirtyLocked(key.getWorldId(), chunkX, chunkZ, store);
+                journal.recordUntrack(key.getWorldName(), key.getX(), key.getY(), key.getZ());
             }
         } finally {
-            lock.writeLock().unlock();
+            lock.unlockWrite(stamp);
         }
     }
 
@@ -349,12 +628,17 @@ public final class CaveMaskManager {
     }
 
     public void collectNearbyBlocks(String worldName, int chunkX, int chunkZ, int radius, List<TrackedBlock> output) {
-        lock.readLock().lock();
-        try {
-            for (int dx = -radius; dx <= radius; dx++) {
-                for (int dz = -radius; dz <= radius; dz++) {
-                    ChunkKey chunkKey = new ChunkKey(worldName, chunkX + dx, chunkZ + dz);
-                    ChunkBlockStore store = chunkStores.get(chunkKey);
+        // reads the resident stores, so a chunk scanned right after loadChunk is seen before the next publish
+        int worldId = WorldRegistry.idOf(worldName);
+        long stamp = lock.readLock();
+        try {
+            ChunkStoreIndex index = worldStores.get(worldId);
+            if (index == null) {
+                return;
+            }
+            for (int dx = -radius; dx <= radius; dx++) {
+                for (int dz = -radius; dz <= radius; dz++) {
+                    ChunkBlockStore store = index.get(ChunkStoreIndex.chunkKey(chunkX + dx, chunkZ + dz));
                     if (store == null || store.isEmpty()) {
                         continue;
                     }
@@ -363,73 +647,405 @@ public final class CaveMaskManager {
                         ArrayList<TrackedBlock> casted = (ArrayList<TrackedBlock>) arrayList;
                         casted.ensureCapacity(output.size() + store.size());
                     }
-                    store.collect(worldName, chunkKey.getX(), chunkKey.getZ(), palette, output);
+                    store.collect(worldId, chunkX + dx, chunkZ + dz, palette, output);
                 }
             }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public int collectNearestBlocks(int worldId, double eyeX, double eyeY, double eyeZ, double radius,
+                                    int chunkRadius, int budget, TrackedBlockBuffer output) {
+        // allocation-free: packed positions and palette ids, resolved later through getPaletteData
+        int start = output.size();
+        visitNearestChunks(worldId, eyeX, eyeY, eyeZ, radius, chunkRadius,
+            (store, chunkX, chunkZ, minY, maxY) -> {
+                store.collect(chunkX, chunkZ, minY, maxY, output);
+                return output.size() - start >= budget;
+            });
+        return output.size() - start;
+    }
+
+    public boolean hasTrackedChunksNear(int worldId, int chunkX, int chunkZ, int chunkRadius) {
+        // coarse, lock-free check against the published chunks; a handful of bitmap rows per call
+        ChunkOccupancy worldOccupancy = occupancy.get(worldId);
+        return worldOccupancy != null
+            && worldOccupancy.anyInRange(chunkX - chunkRadius, chunkZ - chunkRadius, chunkX + chunkRadius, chunkZ + chunkRadius);
+    }
+
+    public BlockData getPaletteData(int paletteId) {
+        // safe from any thread for ids handed out by collectNearestBlocks
+        return palette.get(paletteId);
+    }
+
+    private void visitNearestChunks(int worldId, double eyeX, double eyeY, double eyeZ, double radius,
+                                    int chunkRadius, NearbyChunkVisitor visitor) {
+        // walks chunk rings outwards from the eye, clipped to the sphere, and stops after the ring that fills the budget
+        ChunkStoreIndex[] publishedWorlds = publishedStores;
+        ChunkStoreIndex published = worldId >= 0 && worldId < publishedWorlds.length ? publishedWorlds[worldId] : null;
+        if (published == null) {
+            return;
+        }
+        double radiusSquared = radius * radius;
+        int centerX = (int) Math.floor(eyeX) >> 4;
+        int centerZ = (int) Math.floor(eyeZ) >> 4;
+        boolean filled = false;
+        for (int ring = 0; ring <= chunkRadius && !filled; ring++) {
+            boolean reachable = false;
+            for (int dx = -ring; dx <= ring; dx++) {
+                // inner columns of a ring only contribute their two border chunks
+                int step = (dx == -ring || dx == ring) ? 1 : ring << 1;
+                for (int dz = -ring; dz <= ring; dz += step) {
+                    int chunkX = centerX + dx;
+                    int chunkZ = centerZ + dz;
+                    double offsetX = axisDistance(eyeX, chunkX);
+                    double offsetZ = axisDistance(eyeZ, chunkZ);
+                    double horizontalSquared = (offsetX * offsetX) + (offsetZ * offsetZ);
+                    if (horizontalSquared > radiusSquared) {
+                        continue;
+                    }
+                    reachable = true;
+                    ChunkBlockStore store = published.get(ChunkStoreIndex.chunkKey(chunkX, chunkZ));
+                    if (store == null || store.isEmpty()) {
+                        continue;
+                    }
+                    double halfHeight = Math.sqrt(radiusSquared - horizontalSquared);
+                    filled |= visitor.visit(store, chunkX, chunkZ, (int) Math.floor(eyeY - halfHeight) - 1,
+                        (int) Math.ceil(eyeY + halfHeight));
+                }
+            }
+            if (!reachable) {
+                break;
+            }
+        }
+    }
+
+    private static double axisDistance(double eye, int chunk) {
+        double min = chunk << 4;
+        if (eye < min) {
+            return min - eye;
+        }
+        return Math.max(0.0, eye - (min + 16.0));
+    }
+
+    public void publishSnapshots() {
+        // main thread, every server tick from the view service; stores changed since the last call become visible to async readers
+        long stamp = lock.writeLock();
+        try {
+            publishChangesLocked();
         } finally {
-            lock.readLock().unlock();
+            lock.unlockWrite(stamp);
         }
     }
 
-    public boolean hasTrackedBlocks(String worldName, int chunkX, int chunkZ) {
-        lock.readLock().lock();
-        try {
-            String canonicalWorld = BlockKey.canonicalWorldName(worldName);
-            ChunkKey chunkKey = new ChunkKey(canonicalWorld, chunkX, chunkZ);
-            ChunkBlockStore store = chunkStores.get(chunkKey);
-            return store != null && !store.isEmpty();
-        } finally {
-            lock.readLock().unlock();
-        }
-    }
-
     public TrackedBlock get(BlockKey key) {
-        lock.readLock().lock();
+        long stamp = lock.readLock();
         try {
-            ChunkBlockStore store = chunkStores.get(key.toChunkKey());
-            if (store == null) {
-                return null;
-            }
-            int index = toLocalIndex(key.getX(), key.getY(), key.getZ());
-            int paletteId = store.getPaletteId(index);
-            if (paletteId == IntIntHashMap.NO_VALUE) {
-                return null;
-            }
-            return new TrackedBlock(key, palette.get(paletteId));
+            return lookupResident(key);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public boolean contains(int worldId, int x, int y, int z) {
+        // membership only: no TrackedBlock is built
+        long stamp = lock.readLock();
+        try {
+            return isResident(worldId, x, y, z);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private boolean isResident(int worldId, int x, int y, int z) {
+        ChunkBlockStore store = residentStore(worldId, x >> 4, z >> 4);
+        return store != null && store.getPaletteId(toLocalIndex(x, y, z)) != IntIntHashMap.NO_VALUE;
+    }
+
+    private TrackedBlock lookupResident(BlockKey key) {
+        ChunkBlockStore store = residentStore(key.getWorldId(), key.getX() >> 4, key.getZ() >> 4);
+        if (store == null) {
+            return null;
+        }
+        int paletteId = store.getPaletteId(toLocalIndex(key.getX(), key.getY(), key.getZ()));
+        if (paletteId == IntIntHashMap.NO_VALUE) {
+            return null;
+        }
+        return new TrackedBlock(key, palette.get(paletteId));
+    }
+
+    public BlockData resolveMask(BlockKey key, Block block, PluginConfig config) {
+        // main thread; the appearance only depends on the world around the block, so every viewer shares one resolution
+        int worldId = key.getWorldId();
+        long chunkKey = ChunkStoreIndex.chunkKey(key.getX() >> 4, key.getZ() >> 4);
+        int index = toLocalIndex(key.getX(), key.getY(), key.getZ());
+        int maskId = maskCache.get(worldId, chunkKey, index);
+        if (maskId != IntIntHashMap.NO_VALUE) {
+            return palette.get(maskId);
+        }
+        BlockData resolved = MaskPaletteResolver.resolveFromNeighbors(block, config);
+        if (resolved == null) {
+            return null;
+        }
+        // the palette only grows under the write lock
+        long stamp = lock.writeLock();
+        try {
+            maskId = palette.getOrCreateId(resolved);
         } finally {
-            lock.readLock().unlock();
+            lock.unlockWrite(stamp);
         }
+        maskCache.put(worldId, chunkKey, index, maskId);
+        return palette.get(maskId);
+    }
+
+    public void invalidateMasksAround(Block block) {
+        // main thread; a changed block alters what its own mask and its six neighbours' masks resolve to
+        int worldId = WorldRegistry.idOf(block.getWorld());
+        int x = block.getX();
+        int y = block.getY();
+        int z = block.getZ();
+        invalidateMask(worldId, x, y, z);
+        invalidateMask(worldId, x + 1, y, z);
+        invalidateMask(worldId, x - 1, y, z);
+        invalidateMask(worldId, x, y + 1, z);
+        invalidateMask(worldId, x, y - 1, z);
+        invalidateMask(worldId, x, y, z + 1);
+        invalidateMask(worldId, x, y, z - 1);
+    }
+
+    public void clearMaskCache() {
+        maskCache.clear();
+    }
+
+    private void invalidateMask(int worldId, int x, int y, int z) {
+        maskCache.remove(worldId, ChunkStoreIndex.chunkKey(x >> 4, z >> 4), toLocalIndex(x, y, z));
     }
 
     public int getTrackedCount() {
-        lock.readLock().lock();
+        long stamp = lock.readLock();
         try {
             return trackedBlockCount;
         } finally {
-            lock.readLock().unlock();
+            lock.unlockRead(stamp);
         }
     }
 
-    public void purgeWorld(World world) {
-        lock.writeLock().lock();
+    public void unloadWorld(World world) {
+        long stamp = lock.writeLock();
         try {
-            String worldName = world.getName();
-            Iterator<Map.Entry<ChunkKey, ChunkBlockStore>> iterator = chunkStores.entrySet().iterator();
-            while (iterator.hasNext()) {
-                Map.Entry<ChunkKey, ChunkBlockStore> entry = iterator.next();
-                if (!Objects.equals(entry.getKey().getWorldName(), worldName)) {
-                    continue;
-                }
-                trackedBlockCount -= entry.getValue().size();
-                iterator.remove();
+            int worldId = WorldRegistry.idOf(world);
+            maskCache.removeWorld(worldId);
+            loadingChunks.keySet().removeIf(chunkKey -> chunkKey.getWorldId() == worldId);
+            ChunkStoreIndex index = worldStores.get(worldId);
+            if (index == null) {
+                return;
+            }
+            for (long chunkKey : index.keySnapshot()) {
+                evictLocked(worldId, ChunkStoreIndex.chunkX(chunkKey), ChunkStoreIndex.chunkZ(chunkKey));
             }
+            worldStores.remove(worldId);
+            if (worldId < publishDrafts.length) {
+                publishDrafts[worldId] = null;
+                changedPublishWorlds.set(worldId);
+            }
+            occupancy.remove(worldId);
         } finally {
-            lock.writeLock().unlock();
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void evictLocked(int worldId, int chunkX, int chunkZ) {
+        // write lock guaranteed by caller
+        ChunkStoreIndex index = worldStores.get(worldId);
+        ChunkBlockStore store = index != null ? index.remove(ChunkStoreIndex.chunkKey(chunkX, chunkZ)) : null;
+        if (store == null) {
+            return;
         }
+        publishLocked(worldId, chunkX, chunkZ, null);
+        trackedBlockCount -= store.size();
+        if (store.isDirty()) {
+            ChunkKey chunkKey = ChunkKey.of(worldId, chunkX, chunkZ);
+            dirtyChunks.remove(chunkKey);
+            stageChunkLocked(chunkKey, store);
+        }
+    }
+
+    private void preloadChunksLocked(List<ChunkKey> chunkKeys) {
+        // write lock guaranteed by caller; workers only read region files and resolve palette states
+        if (chunkKeys.isEmpty()) {
+            return;
+        }
+        Map<String, Integer> resolvedStates = new ConcurrentHashMap<>();
+        ToIntFunction<String> stateResolver = state -> resolvedStates.computeIfAbsent(state, unused -> {
+            synchronized (palette) {
+                return palette.resolve(state);
+            }
+        });
+        // runs on the common pool, with the calling thread joining in
+        List<ChunkBlockStore> stores = chunkKeys.parallelStream()
+            .map(chunkKey -> stagedOrRead(chunkKey, stateResolver))
+            .toList();
+        for (int i = 0; i < chunkKeys.size(); i++) {
+            installLocked(chunkKeys.get(i), stores.get(i));
+        }
+    }
+
+    private boolean installLocked(ChunkKey chunkKey, ChunkBlockStore store) {
+        // write lock guaranteed by caller; a chunk without blocks stays resident as the shared empty store, so it is not read again
+        long key = ChunkStoreIndex.chunkKey(chunkKey.getX(), chunkKey.getZ());
+        if (store == null || store.isEmpty()) {
+            worldIndex(chunkKey.getWorldId()).put(key, ChunkBlockStore.EMPTY);
+            return false;
+        }
+        worldIndex(chunkKey.getWorldId()).put(key, store);
+        // goes out with the next published index; the first mutation copies it
+        publishLocked(chunkKey.getWorldId(), chunkKey.getX(), chunkKey.getZ(), store);
+        trackedBlockCount += store.size();
+        return true;
+    }
+
+    private ChunkBlockStore stagedOrRead(ChunkKey chunkKey, ToIntFunction<String> stateResolver) {
+        // a store staged by a checkpoint whose write failed is newer than the region file
+        ChunkBlockStore pending = pendingWrites.get(chunkKey);
+        if (pending != null) {
+            // still shared with the storage thread; the first mutation copies it
+            return pending.isEmpty() ? null : pending;
+        }
+        return readChunk(chunkKey, stateResolver);
     }
 
-    private ChunkBlockStore getOrCreateChunkStore(ChunkKey chunkKey) {
-        return chunkStores.computeIfAbsent(chunkKey, unused -> new ChunkBlockStore());
+    private ChunkBlockStore readChunk(ChunkKey chunkKey, ToIntFunction<String> stateResolver) {
+        return decodeChunk(chunkKey, readRecord(chunkKey), stateResolver);
+    }
+
+    private ChunkRecord readRecord(ChunkKey chunkKey) {
+        // safe from any thread
+        try {
+            return regionStorage.read(chunkKey.getWorldName(), chunkKey.getX(), chunkKey.getZ());
+        } catch (IOException exception) {
+            Bukkit.getLogger().log(Level.SEVERE, "Failed to read tracked blocks for chunk "
+                + chunkKey.getWorldName() + " " + chunkKey.getX() + "," + chunkKey.getZ(), exception);
+            return null;
+        }
+    }
+
+    private ChunkBlockStore decodeChunk(ChunkKey chunkKey, ChunkRecord record, ToIntFunction<String> stateResolver) {
+        if (record == null || record.isEmpty()) {
+            return null;
+        }
+        try {
+            return ChunkRecordCodec.decode(record, storagePalette, stateResolver);
+        } catch (IOException exception) {
+            Bukkit.getLogger().log(Level.SEVERE, "Failed to decode tracked blocks for chunk "
+                + chunkKey.getWorldName() + " " + chunkKey.getX() + "," + chunkKey.getZ(), exception);
+            return null;
+        }
+    }
+
+    private ChunkBlockStore residentStore(int worldId, int chunkX, int chunkZ) {
+        // read or write lock guaranteed by caller
+        ChunkStoreIndex index = worldStores.get(worldId);
+        return index != null ? index.get(ChunkStoreIndex.chunkKey(chunkX, chunkZ)) : null;
+    }
+
+    private ChunkStoreIndex worldIndex(int worldId) {
+        // write lock guaranteed by caller
+        return worldStores.computeIfAbsent(worldId, unused -> new ChunkStoreIndex());
+    }
+
+    private void markDirtyLocked(int worldId, int chunkX, int chunkZ, ChunkBlockStore store) {
+        // write lock guaranteed by caller; only the first change since the last checkpoint allocates a key
+        if (store.markDirty()) {
+            dirtyChunks.add(ChunkKey.of(worldId, chunkX, chunkZ));
+        }
+    }
+
+    private ChunkBlockStore ensureResidentLocked(int worldId, int chunkX, int chunkZ) {
+        // write lock guaranteed by caller; at runtime awaitResident has already made the chunk resident,
+        // so the region file is only read here while load() replays older storage
+        ChunkBlockStore store = residentStore(worldId, chunkX, chunkZ);
+        if (store != null) {
+            return store;
+        }
+        ChunkKey chunkKey = ChunkKey.of(worldId, chunkX, chunkZ);
+        return installLocked(chunkKey, stagedOrRead(chunkKey, palette::resolve)) ? residentStore(worldId, chunkX, chunkZ) : null;
+    }
+
+    private ChunkBlockStore writableStoreLocked(int worldId, int chunkX, int chunkZ) {
+        // write lock guaranteed by caller
+        ChunkBlockStore store = ensureResidentLocked(worldId, chunkX, chunkZ);
+        if (store != null && store.isShared()) {
+            store = store.copy();
+            worldIndex(worldId).put(ChunkStoreIndex.chunkKey(chunkX, chunkZ), store);
+            unpublishedChunks.add(ChunkKey.of(worldId, chunkX, chunkZ));
+        }
+        return store;
+    }
+
+    private ChunkBlockStore getOrCreateChunkStore(int worldId, int chunkX, int chunkZ) {
+        // write lock guaranteed by caller
+        ChunkBlockStore store = writableStoreLocked(worldId, chunkX, chunkZ);
+        if (store == null) {
+            store = new ChunkBlockStore();
+            worldIndex(worldId).put(ChunkStoreIndex.chunkKey(chunkX, chunkZ), store);
+            unpublishedChunks.add(ChunkKey.of(worldId, chunkX, chunkZ));
+        }
+        return store;
+    }
+
+    private void publishChangesLocked() {
+        // write lock guaranteed by caller; unshared resident stores are exactly the ones listed here
+        for (ChunkKey chunkKey : unpublishedChunks) {
+            publishLocked(chunkKey.getWorldId(), chunkKey.getX(), chunkKey.getZ(),
+                residentStore(chunkKey.getWorldId(), chunkKey.getX(), chunkKey.getZ()));
+        }
+        unpublishedChunks.clear();
+        if (changedPublishWorlds.isEmpty()) {
+            return;
+        }
+        // readers keep whichever index they already hold; only the changed worlds are copied
+        ChunkStoreIndex[] published = Arrays.copyOf(publishedStores, publishDrafts.length);
+        for (int worldId = changedPublishWorlds.nextSetBit(0); worldId >= 0; worldId = changedPublishWorlds.nextSetBit(worldId + 1)) {
+            ChunkStoreIndex draft = publishDrafts[worldId];
+            published[worldId] = draft != null && !draft.isEmpty() ? new ChunkStoreIndex(draft) : null;
+        }
+        changedPublishWorlds.clear();
+        publishedStores = published;
+    }
+
+    private void clearPublishedLocked() {
+        // write lock guaranteed by caller
+        publishedStores = new ChunkStoreIndex[0];
+        publishDrafts = new ChunkStoreIndex[0];
+        changedPublishWorlds.clear();
+    }
+
+    private void publishLocked(int worldId, int chunkX, int chunkZ, ChunkBlockStore store) {
+        // write lock guaranteed by caller; a published store is shared, so it is copied before it changes again
+        long chunkKey = ChunkStoreIndex.chunkKey(chunkX, chunkZ);
+        if (store == null || store.isEmpty()) {
+            ChunkStoreIndex draft = worldId < publishDrafts.length ? publishDrafts[worldId] : null;
+            if (draft != null && draft.remove(chunkKey) != null) {
+                changedPublishWorlds.set(worldId);
+            }
+            ChunkOccupancy worldOccupancy = occupancy.get(worldId);
+            if (worldOccupancy != null) {
+                worldOccupancy.set(chunkX, chunkZ, false);
+            }
+            return;
+        }
+        store.markShared();
+        if (worldId >= publishDrafts.length) {
+            publishDrafts = Arrays.copyOf(publishDrafts, worldId + 1);
+        }
+        if (publishDrafts[worldId] == null) {
+            publishDrafts[worldId] = new ChunkStoreIndex();
+        }
+        if (publishDrafts[worldId].put(chunkKey, store) != store) {
+            changedPublishWorlds.set(worldId);
+        }
+        occupancy.computeIfAbsent(worldId, unused -> new ChunkOccupancy()).set(chunkX, chunkZ, true);
     }
 
     private int toLocalIndex(int blockX, int blockY, int blockZ) {
@@ -437,4 +1053,48 @@ public final class CaveMaskManager {
         int localZ = blockZ & LOCAL_COORD_MASK;
         return ((blockY + BLOCK_INDEX_Y_OFFSET) << 8) | (localZ << 4) | localX;
     }
+
+    @FunctionalInterface
+    private interface NearbyChunkVisitor {
+        // returns true once the budget is filled; the current ring is still finished
+        boolean visit(ChunkBlockStore store, int chunkX, int chunkZ, int minY, int maxY);
+    }
+
+    private final class JournalReplayHandler implements MaskJournal.ReplayHandler {
+        // write lock guaranteed by load()
+        private final Map<String, Integer> resolvedStates = new HashMap<>();
+
+        @Override
+        public void track(String worldName, int x, int y, int z, String serializedState) {
+            Integer paletteId = resolvedStates.get(serializedState);
+            if (paletteId == null) {
+                try {
+                    paletteId = palette.resolve(serializedState);
+                } catch (IllegalArgumentException ex) {
+                    Bukkit.getLogger().log(Level.WARNING, "Skipping invalid block data while replaying journal", ex);
+                    paletteId = -1;
+                }
+                resolvedStates.put(serializedState, paletteId);
+            }
+            if (paletteId == -1) {
+                return;
+            }
+            int worldId = WorldRegistry.idOf(worldName);
+            ChunkBlockStore store = getOrCreateChunkStore(worldId, x >> 4, z >> 4);
+            if (store.upsert(toLocalIndex(x, y, z), paletteId)) {
+                trackedBlockCount++;
+            }
+            markDirtyLocked(worldId, x >> 4, z >> 4, store);
+        }
+
+        @Override
+        public void untrack(String worldName, int x, int y, int z) {
+            int worldId = WorldRegistry.idOf(worldName);
+            ChunkBlockStore store = writableStoreLocked(worldId, x >> 4, z >> 4);
+            if (store != null && store.remove(toLocalIndex(x, y, z))) {
+                trackedBlockCount--;
+                markDirtyLocked(worldId, x >> 4, z >> 4, store);
+            }
+        }
+    }
 }
@@ -1,51 +1,273 @@
 package org.topiacube.topiaAntiCaveFinder.mask;
 
 import org.bukkit.block.data.BlockData;
+import org.topiacube.topiaAntiCaveFinder.util.BlockPositions;
 
+import java.util.Arrays;
 import java.util.List;
 
 final class ChunkBlockStore {
 
-    private final IntIntHashMap entries = new IntIntHashMap();
+    // chunks holding up to this many blocks keep two sorted arrays instead of sections
+    private static final int SMALL_LIMIT = 32;
+    // initialised before EMPTY, whose fields are set from it
+    private static final int[] NO_ENTRIES = new int[0];
+
+    static final ChunkBlockStore EMPTY = new ChunkBlockStore();
+
+    static {
+        EMPTY.markShared();
+    }
+
+    // small chunks: ascending block indices with their palette ids alongside
+    private int[] smallIndices = NO_ENTRIES;
+    private int[] smallIds = NO_ENTRIES;
+    // larger chunks: one section per 16x16x16 cube, indexed from sectionBase
+    private ChunkSection[] sections;
+    private int sectionBase;
+    private int size;
+    private boolean shared;
+    private boolean dirty;
+
+    ChunkBlockStore() {
+    }
+
+    ChunkBlockStore(int expectedSize) {
+        if (expectedSize > SMALL_LIMIT) {
+            sections = new ChunkSection[0];
+        } else if (expectedSize > 0) {
+            smallIndices = new int[expectedSize];
+            smallIds = new int[expectedSize];
+        }
+    }
+
+    private ChunkBlockStore(ChunkBlockStore source) {
+        this.smallIndices = source.smallIndices.clone();
+        this.smallIds = source.smallIds.clone();
+        if (source.sections != null) {
+            this.sections = new ChunkSection[source.sections.length];
+            for (int i = 0; i < sections.length; i++) {
+                ChunkSection section = source.sections[i];
+                sections[i] = section != null ? section.copy() : null;
+            }
+        }
+        this.sectionBase = source.sectionBase;
+        this.size = source.size;
+    }
+
+    void markShared() {
+        // shared stores are read by the storage thread and must be copied before the next mutation
+        shared = true;
+    }
+
+    boolean isShared() {
+        return shared;
+    }
+
+    boolean markDirty() {
+        // returns true on the clean-to-dirty transition, when the caller has to remember the chunk
+        if (dirty) {
+            return false;
+        }
+        dirty = true;
+        return true;
+    }
+
+    boolean isDirty() {
+        return dirty;
+    }
+
+    void clearDirty() {
+        dirty = false;
+    }
+
+    ChunkBlockStore copy() {
+        return new ChunkBlockStore(this);
+    }
 
     boolean upsert(int index, int paletteId) {
-        return entries.put(index, paletteId) == IntIntHashMap.NO_VALUE;
+        if (sections == null) {
+            int position = Arrays.binarySearch(smallIndices, 0, size, index);
+            if (position >= 0) {
+                smallIds[position] = paletteId;
+                return false;
+            }
+            if (size < SMALL_LIMIT) {
+                insertSmall(-position - 1, index, paletteId);
+                return true;
+            }
+            promoteToSections();
+        }
+        if (!sectionFor(index >>> ChunkSection.SHIFT).put(index & ChunkSection.LOCAL_MASK, paletteId)) {
+            return false;
+        }
+        size++;
+        return true;
     }
 
     int getPaletteId(int index) {
-        return entries.get(index);
+        if (sections == null) {
+            int position = Arrays.binarySearch(smallIndices, 0, size, index);
+            return position >= 0 ? smallIds[position] : IntIntHashMap.NO_VALUE;
+        }
+        int slot = (index >>> ChunkSection.SHIFT) - sectionBase;
+        if (slot < 0 || slot >= sections.length) {
+            return IntIntHashMap.NO_VALUE;
+        }
+        ChunkSection section = sections[slot];
+        return section != null ? section.get(index & ChunkSection.LOCAL_MASK) : IntIntHashMap.NO_VALUE;
     }
 
     boolean remove(int index) {
-        return entries.remove(index) != IntIntHashMap.NO_VALUE;
+        if (sections == null) {
+            int position = Arrays.binarySearch(smallIndices, 0, size, index);
+            if (position < 0) {
+                return false;
+            }
+            int tail = size - position - 1;
+            System.arraycopy(smallIndices, position + 1, smallIndices, position, tail);
+            System.arraycopy(smallIds, position + 1, smallIds, position, tail);
+            size--;
+            return true;
+        }
+        int slot = (index >>> ChunkSection.SHIFT) - sectionBase;
+        if (slot < 0 || slot >= sections.length || sections[slot] == null) {
+            return false;
+        }
+        ChunkSection section = sections[slot];
+        if (!section.remove(index & ChunkSection.LOCAL_MASK)) {
+            return false;
+        }
+        size--;
+        if (section.isEmpty()) {
+            sections[slot] = null;
+        }
+        if (size <= SMALL_LIMIT / 2) {
+            demoteToSmall();
+        }
+        return true;
     }
 
     boolean isEmpty() {
-        return entries.isEmpty();
+        return size == 0;
     }
 
     int size() {
-        return entries.size();
+        return size;
     }
 
-    void collect(String worldName, int chunkX, int chunkZ, BlockPalette palette, List<TrackedBlock> output) {
-        entries.forEach((index, paletteId) -> {
-            BlockKey key = decode(worldName, chunkX, chunkZ, index);
+    void collect(int worldId, int chunkX, int chunkZ, BlockPalette palette, List<TrackedBlock> output) {
+        forEach((index, paletteId) -> {
+            BlockKey key = decode(worldId, chunkX, chunkZ, index);
             BlockData data = palette.get(paletteId);
             output.add(new TrackedBlock(key, data));
         });
     }
 
+    void collect(int chunkX, int chunkZ, int minY, int maxY, TrackedBlockBuffer output) {
+        int baseX = chunkX << 4;
+        int baseZ = chunkZ << 4;
+        forEachInRange(minY, maxY, (index, paletteId) -> output.add(BlockPositions.pack(
+            baseX + (index & CaveMaskManager.LOCAL_COORD_MASK),
+            (index >>> 8) - CaveMaskManager.BLOCK_INDEX_Y_OFFSET,
+            baseZ + ((index >>> 4) & CaveMaskManager.LOCAL_COORD_MASK)), paletteId));
+    }
+
     void forEach(IntIntHashMap.IntIntConsumer consumer) {
-        entries.forEach(consumer);
+        forEachInRange(Integer.MIN_VALUE, Integer.MAX_VALUE, consumer);
+    }
+
+    void forEachInRange(int minY, int maxY, IntIntHashMap.IntIntConsumer consumer) {
+        // visits indices in ascending order; sections outside [minY, maxY] are never touched
+        int lowLayer = Math.max(minY, -CaveMaskManager.BLOCK_INDEX_Y_OFFSET) + CaveMaskManager.BLOCK_INDEX_Y_OFFSET;
+        int highLayer = Math.min(maxY, CaveMaskManager.BLOCK_INDEX_Y_OFFSET) + CaveMaskManager.BLOCK_INDEX_Y_OFFSET;
+        if (sections == null) {
+            int position = Arrays.binarySearch(smallIndices, 0, size, lowLayer << 8);
+            for (int i = position >= 0 ? position : -position - 1; i < size && (smallIndices[i] >>> 8) <= highLayer; i++) {
+                consumer.accept(smallIndices[i], smallIds[i]);
+            }
+            return;
+        }
+        lowLayer = Math.max(lowLayer, sectionBase << 4);
+        highLayer = Math.min(highLayer, ((sectionBase + sections.length) << 4) - 1);
+        for (int section = lowLayer >> 4; section <= (highLayer >> 4) && lowLayer <= highLayer; section++) {
+            ChunkSection current = sections[section - sectionBase];
+            if (current == null) {
+                continue;
+            }
+            int fromLayer = section == (lowLayer >> 4) ? lowLayer & 15 : 0;
+            int toLayer = section == (highLayer >> 4) ? highLayer & 15 : 15;
+            current.forEach(section << ChunkSection.SHIFT, fromLayer, toLayer, consumer);
+        }
+    }
+
+    private void insertSmall(int position, int index, int paletteId) {
+        if (size == smallIndices.length) {
+            int capacity = Math.min(SMALL_LIMIT, Math.max(4, size << 1));
+            smallIndices = Arrays.copyOf(smallIndices, capacity);
+            smallIds = Arrays.copyOf(smallIds, capacity);
+        }
+        System.arraycopy(smallIndices, position, smallIndices, position + 1, size - position);
+        System.arraycopy(smallIds, position, smallIds, position + 1, size - position);
+        smallIndices[position] = index;
+        smallIds[position] = paletteId;
+        size++;
+    }
+
+    private void promoteToSections() {
+        int[] indices = smallIndices;
+        int[] ids = smallIds;
+        sections = new ChunkSection[0];
+        for (int i = 0; i < size; i++) {
+            sectionFor(indices[i] >>> ChunkSection.SHIFT).put(indices[i] & ChunkSection.LOCAL_MASK, ids[i]);
+        }
+        smallIndices = NO_ENTRIES;
+        smallIds = NO_ENTRIES;
+    }
+
+    private void demoteToSmall() {
+        int[] indices = new int[SMALL_LIMIT];
+        int[] ids = new int[SMALL_LIMIT];
+        int[] position = {0};
+        forEach((index, paletteId) -> {
+            indices[position[0]] = index;
+            ids[position[0]++] = paletteId;
+        });
+        smallIndices = indices;
+        smallIds = ids;
+        sections = null;
+        sectionBase = 0;
+    }
+
+    private ChunkSection sectionFor(int section) {
+        if (sections.length == 0) {
+            sectionBase = section;
+            sections = new ChunkSection[1];
+        }
+        int slot = section - sectionBase;
+        if (slot < 0 || slot >= sections.length) {
+            int newBase = Math.min(sectionBase, section);
+            int newEnd = Math.max(sectionBase + sections.length, section + 1);
+            ChunkSection[] grown = new ChunkSection[newEnd - newBase];
+            System.arraycopy(sections, 0, grown, sectionBase - newBase, sections.length);
+            sections = grown;
+            sectionBase = newBase;
+            slot = section - newBase;
+        }
+        ChunkSection current = sections[slot];
+        if (current == null) {
+            current = new ChunkSection();
+            sections[slot] = current;
+        }
+        return current;
     }
 
-    private BlockKey decode(String worldName, int chunkX, int chunkZ, int index) {
+    private BlockKey decode(int worldId, int chunkX, int chunkZ, int index) {
         int localX = index & CaveMaskManager.LOCAL_COORD_MASK;
         int localZ = (index >>> 4) & CaveMaskManager.LOCAL_COORD_MASK;
         int y = (index >>> 8) - CaveMaskManager.BLOCK_INDEX_Y_OFFSET;
         int x = (chunkX << 4) + localX;
         int z = (chunkZ << 4) + localZ;
-        return new BlockKey(worldName, x, y, z);
+        return BlockKey.of(worldId, x, y, z);
     }
 }
@@ -1,20 +1,30 @@
 package org.topiacube.topiaAntiCaveFinder.mask;
 
-import java.util.Objects;
-
 public final class ChunkKey {
-    private final String worldName;
+    private final int worldId;
     private final int x;
     private final int z;
 
     public ChunkKey(String worldName, int x, int z) {
-        this.worldName = worldName != null ? worldName.intern() : null;
+        this(WorldRegistry.idOf(worldName), x, z);
+    }
+
+    private ChunkKey(int worldId, int x, int z) {
+        this.worldId = worldId;
         this.x = x;
         this.z = z;
     }
 
+    public static ChunkKey of(int worldId, int x, int z) {
+        return new ChunkKey(worldId, x, z);
+    }
+
+    public int getWorldId() {
+        return worldId;
+    }
+
     public String getWorldName() {
-        return worldName;
+        return WorldRegistry.nameOf(worldId);
     }
 
     public int getX() {
@@ -33,11 +43,14 @@ public final class ChunkKey {
         if (!(o instanceof ChunkKey chunkKey)) {
             return false;
         }
-        return x == chunkKey.x && z == chunkKey.z && Objects.equals(worldName, chunkKey.worldName);
+        return x == chunkKey.x && z == chunkKey.z && worldId == chunkKey.worldId;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(worldName, x, z);
+        int result = worldId;
+        result = (31 * result) + x;
+        result = (31 * result) + z;
+        return result;
     }
 }
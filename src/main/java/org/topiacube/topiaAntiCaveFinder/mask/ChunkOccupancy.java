@@ -0,0 +1,62 @@
+package org.topiacube.topiaAntiCaveFinder.mask;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+final class ChunkOccupancy {
+
+    private static final int REGION_MASK = RegionStorage.REGION_SIZE - 1;
+
+    // one bitmap per 32x32 chunk region: an int row per chunk z, a bit per chunk x
+    private final Map<Long, int[]> regions = new ConcurrentHashMap<>();
+
+    void set(int chunkX, int chunkZ, boolean occupied) {
+        // write lock guaranteed by caller; readers may see a row one update late
+        long regionKey = ChunkStoreIndex.chunkKey(chunkX >> RegionStorage.REGION_SHIFT, chunkZ >> RegionStorage.REGION_SHIFT);
+        int[] rows = regions.get(regionKey);
+        if (rows == null) {
+            if (!occupied) {
+                return;
+            }
+            rows = new int[RegionStorage.REGION_SIZE];
+            regions.put(regionKey, rows);
+        }
+        int bit = 1 << (chunkX & REGION_MASK);
+        if (occupied) {
+            rows[chunkZ & REGION_MASK] |= bit;
+            return;
+        }
+        rows[chunkZ & REGION_MASK] &= ~bit;
+        for (int row : rows) {
+            if (row != 0) {
+                return;
+            }
+        }
+        regions.remove(regionKey);
+    }
+
+    boolean anyInRange(int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ) {
+        for (int regionZ = minChunkZ >> RegionStorage.REGION_SHIFT; regionZ <= maxChunkZ >> RegionStorage.REGION_SHIFT; regionZ++) {
+            for (int regionX = minChunkX >> RegionStorage.REGION_SHIFT; regionX <= maxChunkX >> RegionStorage.REGION_SHIFT; regionX++) {
+                int[] rows = regions.get(ChunkStoreIndex.chunkKey(regionX, regionZ));
+                if (rows == null) {
+                    continue;
+                }
+                int regionMinX = regionX << RegionStorage.REGION_SHIFT;
+                int regionMinZ = regionZ << RegionStorage.REGION_SHIFT;
+                int fromX = Math.max(minChunkX, regionMinX) - regionMinX;
+                int toX = Math.min(maxChunkX, regionMinX + REGION_MASK) - regionMinX;
+                int width = toX - fromX + 1;
+                int columns = (width == Integer.SIZE ? -1 : (1 << width) - 1) << fromX;
+                int fromZ = Math.max(minChunkZ, regionMinZ) - regionMinZ;
+                int toZ = Math.min(maxChunkZ, regionMinZ + REGION_MASK) - regionMinZ;
+                for (int z = fromZ; z <= toZ; z++) {
+                    if ((rows[z] & columns) != 0) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+}
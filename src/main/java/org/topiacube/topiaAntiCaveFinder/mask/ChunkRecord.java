@@ -0,0 +1,16 @@
+package org.topiacube.topiaAntiCaveFinder.mask;
+
+import java.nio.ByteBuffer;
+
+record ChunkRecord(ByteBuffer data, int blockCount) {
+
+    static final ChunkRecord EMPTY = new ChunkRecord(ByteBuffer.allocate(0), 0);
+
+    boolean isEmpty() {
+        return blockCount == 0 || !data.hasRemaining();
+    }
+
+    int length() {
+        return data.remaining();
+    }
+}
@@ -0,0 +1,254 @@
+package org.topiacube.topiaAntiCaveFinder.mask;
+
+import org.bukkit.Bukkit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.function.IntUnaryOperator;
+import java.util.function.ToIntFunction;
+import java.util.logging.Level;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+final class ChunkRecordCodec {
+
+    private static final byte FORMAT_RAW = 0;
+    private static final byte FORMAT_DEFLATED = 1;
+    private static final int DEFLATE_THRESHOLD_BYTES = 256;
+
+    private ChunkRecordCodec() {
+    }
+
+    static ChunkRecord encode(ChunkBlockStore store, IntUnaryOperator storageIds) {
+        if (store == null || store.isEmpty()) {
+            return ChunkRecord.EMPTY;
+        }
+        int blockCount = store.size();
+        int[] indices = new int[blockCount];
+        int[] runtimeIds = new int[blockCount];
+        final int[] position = {0};
+        // the store visits indices in ascending order, which is the order records keep them in
+        store.forEach((index, runtimePaletteId) -> {
+            indices[position[0]] = index;
+            runtimeIds[position[0]++] = runtimePaletteId;
+        });
+
+        IntIntHashMap paletteRemap = new IntIntHashMap();
+        int[] localPalette = new int[blockCount];
+        int[] runLengths = new int[blockCount];
+        int[] runIds = new int[blockCount];
+        int paletteSize = 0;
+        int runCount = 0;
+        for (int i = 0; i < blockCount; i++) {
+            int runtimePaletteId = runtimeIds[i];
+            int local = paletteRemap.get(runtimePaletteId);
+            if (local == IntIntHashMap.NO_VALUE) {
+                local = paletteSize++;
+                paletteRemap.put(runtimePaletteId, local);
+                localPalette[local] = storageIds.applyAsInt(runtimePaletteId);
+            }
+            if (runCount > 0 && runIds[runCount - 1] == local) {
+                runLengths[runCount - 1]++;
+            } else {
+                runLengths[runCount] = 1;
+                runIds[runCount++] = local;
+            }
+        }
+
+        // a local remap costs its own table, so only use it when the runs get cheaper by more than that
+        int remapCost = varIntSize(paletteSize);
+        int directCost = varIntSize(0);
+        for (int l = 0; l < paletteSize; l++) {
+            remapCost += varIntSize(localPalette[l]);
+        }
+        for (int r = 0; r < runCount; r++) {
+            remapCost += varIntSize(runIds[r]);
+            directCost += varIntSize(localPalette[runIds[r]]);
+        }
+        boolean remap = remapCost < directCost;
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream(16 + (blockCount * 2));
+        if (remap) {
+            writeVarInt(output, paletteSize);
+            for (int l = 0; l < paletteSize; l++) {
+                writeVarInt(output, localPalette[l]);
+            }
+        } else {
+            writeVarInt(output, 0);
+        }
+        // indices are sorted, so tunnels along x become runs of single-byte deltas
+        writeVarInt(output, blockCount);
+        int previous = 0;
+        for (int i = 0; i < blockCount; i++) {
+            writeVarInt(output, indices[i] - previous);
+            previous = indices[i];
+        }
+        for (int r = 0; r < runCount; r++) {
+            writeVarInt(output, runLengths[r]);
+            writeVarInt(output, remap ? runIds[r] : localPalette[runIds[r]]);
+        }
+        return new ChunkRecord(ByteBuffer.wrap(frame(output.toByteArray())), blockCount);
+    }
+
+    private static byte[] frame(byte[] body) {
+        if (body.length >= DEFLATE_THRESHOLD_BYTES) {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                deflater.setInput(body);
+                deflater.finish();
+                byte[] compressed = new byte[body.length];
+                int compressedLength = 0;
+                while (!deflater.finished() && compressedLength < compressed.length) {
+                    compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+                }
+                // only keep the deflated form when it is actually smaller
+                if (deflater.finished() && compressedLength + 6 < body.length) {
+                    ByteArrayOutputStream framed = new ByteArrayOutputStream(compressedLength + 6);
+                    framed.write(FORMAT_DEFLATED);
+                    writeVarInt(framed, body.length);
+                    framed.write(compressed, 0, compressedLength);
+                    return framed.toByteArray();
+                }
+            } finally {
+                deflater.end();
+            }
+        }
+        byte[] framed = new byte[body.length + 1];
+        framed[0] = FORMAT_RAW;
+        System.arraycopy(body, 0, framed, 1, body.length);
+        return framed;
+    }
+
+    static ChunkBlockStore decode(ChunkRecord record, StoragePalette storagePalette,
+                                  ToIntFunction<String> stateResolver) throws IOException {
+        if (record == null || record.isEmpty()) {
+            return new ChunkBlockStore();
+        }
+        ByteBuffer input = record.data().duplicate();
+        try {
+            byte format = input.get();
+            switch (format) {
+                case FORMAT_RAW -> {
+                    return decodeBody(input, storagePalette, stateResolver);
+                }
+                case FORMAT_DEFLATED -> {
+                    return decodeBody(inflate(input), storagePalette, stateResolver);
+                }
+                default -> throw new IOException("Unknown chunk record format " + format);
+            }
+        } catch (BufferUnderflowException | NegativeArraySizeException ex) {
+            throw new IOException("Chunk record is truncated or corrupt", ex);
+        }
+    }
+
+    private static ChunkBlockStore decodeBody(ByteBuffer input, StoragePalette storagePalette,
+                                                ToIntFunction<String> stateResolver) throws IOException {
+        int localPaletteSize = readVarInt(input);
+        int[] localPalette = new int[localPaletteSize];
+        for (int l = 0; l < localPaletteSize; l++) {
+            localPalette[l] = readVarInt(input);
+        }
+        int blockCount = readVarInt(input);
+        int[] indices = new int[blockCount];
+        int previous = 0;
+        for (int b = 0; b < blockCount; b++) {
+            previous += readVarInt(input);
+            indices[b] = previous;
+        }
+        ChunkBlockStore store = new ChunkBlockStore(blockCount);
+        IntIntHashMap runtimeIds = new IntIntHashMap();
+        int b = 0;
+        while (b < blockCount) {
+            int runLength = readVarInt(input);
+            int id = readVarInt(input);
+            if (runLength <= 0 || runLength > blockCount - b) {
+                throw new IOException("Chunk record has an invalid palette run");
+            }
+            int storageId = localPaletteSize == 0 ? id : (id >= 0 && id < localPaletteSize ? localPalette[id] : -1);
+            int runtimePaletteId = runtimeIds.get(storageId);
+            if (runtimePaletteId == IntIntHashMap.NO_VALUE) {
+                runtimePaletteId = resolveStorageId(storageId, storagePalette, stateResolver);
+                runtimeIds.put(storageId, runtimePaletteId);
+            }
+            int runEnd = b + runLength;
+            if (runtimePaletteId != -1) {
+                for (int i = b; i < runEnd; i++) {
+                    store.upsert(indices[i], runtimePaletteId);
+                }
+            }
+            b = runEnd;
+        }
+        return store;
+    }
+
+    private static int resolveStorageId(int storageId, StoragePalette storagePalette, ToIntFunction<String> stateResolver) {
+        String dataString = storagePalette.get(storageId);
+        if (dataString == null) {
+            Bukkit.getLogger().warning("Skipping unknown block state id " + storageId + " while reading storage");
+            return -1;
+        }
+        try {
+            return stateResolver.applyAsInt(dataString);
+        } catch (IllegalArgumentException ex) {
+            Bukkit.getLogger().log(Level.WARNING, "Skipping invalid block data while reading storage", ex);
+            return -1;
+        }
+    }
+
+    private static ByteBuffer inflate(ByteBuffer input) throws IOException {
+        int rawLength = readVarInt(input);
+        byte[] raw = new byte[rawLength];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input);
+            int length = 0;
+            while (length < rawLength && !inflater.finished()) {
+                int inflated = inflater.inflate(raw, length, rawLength - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += inflated;
+            }
+            if (length != rawLength) {
+                throw new IOException("Deflated chunk record is truncated");
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException("Deflated chunk record is corrupt", ex);
+        } finally {
+            inflater.end();
+        }
+        return ByteBuffer.wrap(raw);
+    }
+
+    private static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream output, int value) {
+        while ((value & ~0x7F) != 0) {
+            output.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.write(value);
+    }
+
+    private static int readVarInt(ByteBuffer input) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = input.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Chunk record contains a malformed varint");
+    }
+}
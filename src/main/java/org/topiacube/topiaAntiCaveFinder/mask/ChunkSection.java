@@ -0,0 +1,249 @@
+package org.topiacube.topiaAntiCaveFinder.mask;
+
+final class ChunkSection {
+
+    static final int SHIFT = 12;
+    static final int VOLUME = 1 << SHIFT;
+    static final int LOCAL_MASK = VOLUME - 1;
+
+    private static final int WORDS = VOLUME / Long.SIZE;
+    private static final int WORDS_PER_LAYER = 4;
+    // sparse maps cost about 16 bytes per block, a dense section at most 4.5 KiB
+    private static final int DENSE_THRESHOLD = 256;
+    private static final int SPARSE_THRESHOLD = 64;
+    private static final int MAX_DENSE_PALETTE = 256;
+
+    private final long[] occupancy;
+    private int count;
+    // doubled after a section turns out to hold too many states to pack, so the attempt is not repeated on every put
+    private int denseThreshold = DENSE_THRESHOLD;
+    // sparse sections map the local index to its palette id
+    private IntIntHashMap sparse;
+    // dense sections bit-pack a local palette slot for every position; occupancy decides which slots are live
+    private int[] densePalette;
+    private int densePaletteSize;
+    private long[] packed;
+    private int bitsPerEntry;
+
+    ChunkSection() {
+        this.occupancy = new long[WORDS];
+        this.sparse = new IntIntHashMap();
+    }
+
+    private ChunkSection(ChunkSection source) {
+        this.occupancy = source.occupancy.clone();
+        this.count = source.count;
+        this.denseThreshold = source.denseThreshold;
+        this.sparse = source.sparse != null ? new IntIntHashMap(source.sparse) : null;
+        this.densePalette = source.densePalette != null ? source.densePalette.clone() : null;
+        this.densePaletteSize = source.densePaletteSize;
+        this.packed = source.packed != null ? source.packed.clone() : null;
+        this.bitsPerEntry = source.bitsPerEntry;
+    }
+
+    ChunkSection copy() {
+        return new ChunkSection(this);
+    }
+
+    int count() {
+        return count;
+    }
+
+    boolean isEmpty() {
+        return count == 0;
+    }
+
+    int get(int local) {
+        if ((occupancy[local >>> 6] & (1L << local)) == 0L) {
+            return IntIntHashMap.NO_VALUE;
+        }
+        if (sparse != null) {
+            return sparse.get(local);
+        }
+        return denseGet(local);
+    }
+
+    boolean put(int local, int paletteId) {
+        int word = local >>> 6;
+        long bit = 1L << local;
+        boolean added = (occupancy[word] & bit) == 0L;
+        if (sparse == null && !denseSet(local, paletteId)) {
+            toSparse();
+            denseThreshold = count << 1;
+        }
+        if (sparse != null) {
+            sparse.put(local, paletteId);
+        }
+        if (added) {
+            occupancy[word] |= bit;
+            count++;
+            if (sparse != null && count > denseThreshold && !toDense()) {
+                denseThreshold = count << 1;
+            }
+        }
+        return added;
+    }
+
+    boolean remove(int local) {
+        int word = local >>> 6;
+        long bit = 1L << local;
+        if ((occupancy[word] & bit) == 0L) {
+            return false;
+        }
+        occupancy[word] &= ~bit;
+        count--;
+        if (sparse != null) {
+            sparse.remove(local);
+        } else if (count < SPARSE_THRESHOLD) {
+            toSparse();
+        }
+        if (count < SPARSE_THRESHOLD) {
+            denseThreshold = DENSE_THRESHOLD;
+        }
+        return true;
+    }
+
+    void forEach(int sectionStart, int fromLayer, int toLayer, IntIntHashMap.IntIntConsumer consumer) {
+        // visits set bits in ascending index order
+        int lastWord = (toLayer * WORDS_PER_LAYER) + WORDS_PER_LAYER - 1;
+        for (int word = fromLayer * WORDS_PER_LAYER; word <= lastWord; word++) {
+            long remaining = occupancy[word];
+            while (remaining != 0L) {
+                int local = (word << 6) | Long.numberOfTrailingZeros(remaining);
+                consumer.accept(sectionStart | local, sparse != null ? sparse.get(local) : denseGet(local));
+                remaining &= remaining - 1L;
+            }
+        }
+    }
+
+    private int denseGet(int local) {
+        return densePalette[readSlot(packed, bitsPerEntry, local)];
+    }
+
+    private boolean denseSet(int local, int paletteId) {
+        int slot = -1;
+        for (int i = 0; i < densePaletteSize; i++) {
+            if (densePalette[i] == paletteId) {
+                slot = i;
+                break;
+            }
+        }
+        if (slot < 0) {
+            if (densePaletteSize == MAX_DENSE_PALETTE) {
+                return false;
+            }
+            if (densePaletteSize == (1 << bitsPerEntry)) {
+                repack(bitsPerEntry + 1);
+            }
+            if (densePaletteSize == densePalette.length) {
+                int[] grown = new int[densePalette.length << 1];
+                System.arraycopy(densePalette, 0, grown, 0, densePaletteSize);
+                densePalette = grown;
+            }
+            slot = densePaletteSize++;
+            densePalette[slot] = paletteId;
+        }
+        writeSlot(packed, bitsPerEntry, local, slot);
+        return true;
+    }
+
+    private boolean toDense() {
+        int[] palette = new int[16];
+        int paletteSize = 0;
+        IntIntHashMap slots = new IntIntHashMap();
+        int[] localSlots = new int[VOLUME];
+        for (int word = 0; word < WORDS; word++) {
+            long remaining = occupancy[word];
+            while (remaining != 0L) {
+                int local = (word << 6) | Long.numberOfTrailingZeros(remaining);
+                int paletteId = sparse.get(local);
+                int slot = slots.get(paletteId);
+                if (slot == IntIntHashMap.NO_VALUE) {
+                    if (paletteSize == MAX_DENSE_PALETTE) {
+                        // too many distinct states for a compact packing; stay sparse
+                        return false;
+                    }
+                    if (paletteSize == palette.length) {
+                        int[] grown = new int[palette.length << 1];
+                        System.arraycopy(palette, 0, grown, 0, paletteSize);
+                        palette = grown;
+                    }
+                    slot = paletteSize;
+                    palette[paletteSize++] = paletteId;
+                    slots.put(paletteId, slot);
+                }
+                localSlots[local] = slot;
+                remaining &= remaining - 1L;
+            }
+        }
+        int bits = bitsFor(paletteSize);
+        long[] words = new long[packedLength(bits)];
+        for (int word = 0; word < WORDS; word++) {
+            long remaining = occupancy[word];
+            while (remaining != 0L) {
+                int local = (word << 6) | Long.numberOfTrailingZeros(remaining);
+                writeSlot(words, bits, local, localSlots[local]);
+                remaining &= remaining - 1L;
+            }
+        }
+        densePalette = palette;
+        densePaletteSize = paletteSize;
+        packed = words;
+        bitsPerEntry = bits;
+        sparse = null;
+        return true;
+    }
+
+    private void toSparse() {
+        IntIntHashMap map = new IntIntHashMap(Math.max(16, count * 2));
+        for (int word = 0; word < WORDS; word++) {
+            long remaining = occupancy[word];
+            while (remaining != 0L) {
+                int local = (word << 6) | Long.numberOfTrailingZeros(remaining);
+                map.put(local, denseGet(local));
+                remaining &= remaining - 1L;
+            }
+        }
+        sparse = map;
+        densePalette = null;
+        densePaletteSize = 0;
+        packed = null;
+        bitsPerEntry = 0;
+    }
+
+    private void repack(int bits) {
+        long[] words = new long[packedLength(bits)];
+        for (int word = 0; word < WORDS; word++) {
+            long remaining = occupancy[word];
+            while (remaining != 0L) {
+                int local = (word << 6) | Long.numberOfTrailingZeros(remaining);
+                writeSlot(words, bits, local, readSlot(packed, bitsPerEntry, local));
+                remaining &= remaining - 1L;
+            }
+        }
+        packed = words;
+        bitsPerEntry = bits;
+    }
+
+    private static int readSlot(long[] words, int bits, int local) {
+        int perWord = Long.SIZE / bits;
+        return (int) ((words[local / perWord] >>> ((local % perWord) * bits)) & ((1L << bits) - 1L));
+    }
+
+    private static void writeSlot(long[] words, int bits, int local, int slot) {
+        int perWord = Long.SIZE / bits;
+        int shift = (local % perWord) * bits;
+        long mask = ((1L << bits) - 1L) << shift;
+        int word = local / perWord;
+        words[word] = (words[word] & ~mask) | (((long) slot << shift) & mask);
+    }
+
+    private static int packedLength(int bits) {
+        int perWord = Long.SIZE / bits;
+        return (VOLUME + perWord - 1) / perWord;
+    }
+
+    private static int bitsFor(int paletteSize) {
+        return Math.max(1, Integer.SIZE - Integer.numberOfLeadingZeros(paletteSize - 1));
+    }
+}
@@ -0,0 +1,172 @@
+package org.topiacube.topiaAntiCaveFinder.mask;
+
+import java.util.Arrays;
+
+final class ChunkStoreIndex {
+
+    private static final long EMPTY_KEY = Long.MIN_VALUE;
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private long[] keys;
+    private ChunkBlockStore[] stores;
+    private int mask;
+    private int size;
+    private int threshold;
+
+    ChunkStoreIndex() {
+        allocateArrays(64);
+    }
+
+    ChunkStoreIndex(ChunkStoreIndex source) {
+        keys = source.keys.clone();
+        stores = source.stores.clone();
+        mask = source.mask;
+        size = source.size;
+        threshold = source.threshold;
+    }
+
+    static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    static int chunkX(long chunkKey) {
+        return (int) (chunkKey >> 32);
+    }
+
+    static int chunkZ(long chunkKey) {
+        return (int) chunkKey;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    ChunkBlockStore get(long key) {
+        int pos = mix(key) & mask;
+        while (true) {
+            long current = keys[pos];
+            if (current == EMPTY_KEY) {
+                return null;
+            }
+            if (current == key) {
+                return stores[pos];
+            }
+            pos = (pos + 1) & mask;
+        }
+    }
+
+    ChunkBlockStore put(long key, ChunkBlockStore store) {
+        if (size + 1 > threshold) {
+            rehash(keys.length << 1);
+        }
+        int pos = mix(key) & mask;
+        while (true) {
+            long current = keys[pos];
+            if (current == EMPTY_KEY) {
+                stores[pos] = store;
+                keys[pos] = key;
+                size++;
+                return null;
+            }
+            if (current == key) {
+                ChunkBlockStore previous = stores[pos];
+                stores[pos] = store;
+                return previous;
+            }
+            pos = (pos + 1) & mask;
+        }
+    }
+
+    ChunkBlockStore remove(long key) {
+        int pos = mix(key) & mask;
+        while (true) {
+            long current = keys[pos];
+            if (current == EMPTY_KEY) {
+                return null;
+            }
+            if (current == key) {
+                ChunkBlockStore previous = stores[pos];
+                shiftKeys(pos);
+                size--;
+                return previous;
+            }
+            pos = (pos + 1) & mask;
+        }
+    }
+
+    long[] keySnapshot() {
+        long[] snapshot = new long[size];
+        int count = 0;
+        for (long key : keys) {
+            if (key != EMPTY_KEY) {
+                snapshot[count++] = key;
+            }
+        }
+        return snapshot;
+    }
+
+    void forEach(ChunkStoreConsumer consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            long key = keys[i];
+            if (key != EMPTY_KEY) {
+                consumer.accept(key, stores[i]);
+            }
+        }
+    }
+
+    private void allocateArrays(int capacity) {
+        long[] newKeys = new long[capacity];
+        Arrays.fill(newKeys, EMPTY_KEY);
+        stores = new ChunkBlockStore[capacity];
+        keys = newKeys;
+        mask = capacity - 1;
+        threshold = Math.max(1, (int) (capacity * LOAD_FACTOR));
+    }
+
+    private void rehash(int newCapacity) {
+        long[] oldKeys = keys;
+        ChunkBlockStore[] oldStores = stores;
+        allocateArrays(newCapacity);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY_KEY) {
+                put(oldKeys[i], oldStores[i]);
+            }
+        }
+    }
+
+    private void shiftKeys(int start) {
+        int pos = start;
+        while (true) {
+            pos = (pos + 1) & mask;
+            long current = keys[pos];
+            if (current == EMPTY_KEY) {
+                keys[start] = EMPTY_KEY;
+                stores[start] = null;
+                return;
+            }
+            int slot = mix(current) & mask;
+            if (start <= pos ? (start >= slot || slot > pos) : (start >= slot && slot > pos)) {
+                keys[start] = current;
+                stores[start] = stores[pos];
+                start = pos;
+            }
+        }
+    }
+
+    private static int mix(long value) {
+        value ^= (value >>> 33);
+        value *= 0xff51afd7ed558ccdL;
+        value ^= (value >>> 33);
+        return (int) value;
+    }
+
+    @FunctionalInterface
+    interface ChunkStoreConsumer {
+        void accept(long chunkKey, ChunkBlockStore store);
+    }
+}
@@ -27,6 +27,14 @@ final class IntIntHashMap {
         size = 0;
     }
 
+    IntIntHashMap(IntIntHashMap source) {
+        keys = source.keys.clone();
+        values = source.values.clone();
+        mask = source.mask;
+        size = source.size;
+        threshold = source.threshold;
+    }
+
     int size() {
         return size;
     }
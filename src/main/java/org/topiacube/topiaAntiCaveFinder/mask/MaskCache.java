@@ -0,0 +1,170 @@
+package org.topiacube.topiaAntiCaveFinder.mask;
+
+import java.util.Arrays;
+
+final class MaskCache {
+
+    private static final long EMPTY_KEY = Long.MIN_VALUE;
+    private static final float LOAD_FACTOR = 0.6f;
+
+    // resolved mask palette ids by world id, chunk key and block index; main thread only and never persisted
+    private ChunkMasks[] worlds = new ChunkMasks[0];
+
+    int get(int worldId, long chunkKey, int index) {
+        IntIntHashMap masks = worldId >= 0 && worldId < worlds.length && worlds[worldId] != null
+            ? worlds[worldId].get(chunkKey) : null;
+        return masks != null ? masks.get(index) : IntIntHashMap.NO_VALUE;
+    }
+
+    void put(int worldId, long chunkKey, int index, int maskId) {
+        if (worldId < 0) {
+            return;
+        }
+        if (worldId >= worlds.length) {
+            worlds = Arrays.copyOf(worlds, worldId + 1);
+        }
+        ChunkMasks chunks = worlds[worldId];
+        if (chunks == null) {
+            chunks = new ChunkMasks();
+            worlds[worldId] = chunks;
+        }
+        chunks.getOrCreate(chunkKey).put(index, maskId);
+    }
+
+    void remove(int worldId, long chunkKey, int index) {
+        IntIntHashMap masks = worldId >= 0 && worldId < worlds.length && worlds[worldId] != null
+            ? worlds[worldId].get(chunkKey) : null;
+        if (masks != null) {
+            masks.remove(index);
+        }
+    }
+
+    void removeChunk(int worldId, long chunkKey) {
+        if (worldId >= 0 && worldId < worlds.length && worlds[worldId] != null) {
+            worlds[worldId].remove(chunkKey);
+        }
+    }
+
+    void removeWorld(int worldId) {
+        if (worldId >= 0 && worldId < worlds.length) {
+            worlds[worldId] = null;
+        }
+    }
+
+    void clear() {
+        worlds = new ChunkMasks[0];
+    }
+
+    private static final class ChunkMasks {
+        private long[] keys;
+        private IntIntHashMap[] masks;
+        private int mask;
+        private int size;
+        private int threshold;
+
+        private ChunkMasks() {
+            allocateArrays(16);
+        }
+
+        IntIntHashMap get(long key) {
+            int pos = mix(key) & mask;
+            while (true) {
+                long current = keys[pos];
+                if (current == EMPTY_KEY) {
+                    return null;
+                }
+                if (current == key) {
+                    return masks[pos];
+                }
+                pos = (pos + 1) & mask;
+            }
+        }
+
+        IntIntHashMap getOrCreate(long key) {
+            if (size + 1 > threshold) {
+                rehash(keys.length << 1);
+            }
+            int pos = mix(key) & mask;
+            while (true) {
+                long current = keys[pos];
+                if (current == EMPTY_KEY) {
+                    IntIntHashMap created = new IntIntHashMap();
+                    keys[pos] = key;
+                    masks[pos] = created;
+                    size++;
+                    return created;
+                }
+                if (current == key) {
+                    return masks[pos];
+                }
+                pos = (pos + 1) & mask;
+            }
+        }
+
+        void remove(long key) {
+            int pos = mix(key) & mask;
+            while (true) {
+                long current = keys[pos];
+                if (current == EMPTY_KEY) {
+                    return;
+                }
+                if (current == key) {
+                    shiftKeys(pos);
+                    size--;
+                    return;
+                }
+                pos = (pos + 1) & mask;
+            }
+        }
+
+        private void allocateArrays(int capacity) {
+            keys = new long[capacity];
+            Arrays.fill(keys, EMPTY_KEY);
+            masks = new IntIntHashMap[capacity];
+            mask = capacity - 1;
+            threshold = Math.max(1, (int) (capacity * LOAD_FACTOR));
+        }
+
+        private void rehash(int newCapacity) {
+            long[] oldKeys = keys;
+            IntIntHashMap[] oldMasks = masks;
+            allocateArrays(newCapacity);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY_KEY) {
+                    int pos = mix(oldKeys[i]) & mask;
+                    while (keys[pos] != EMPTY_KEY) {
+                        pos = (pos + 1) & mask;
+                    }
+                    keys[pos] = oldKeys[i];
+                    masks[pos] = oldMasks[i];
+                }
+            }
+        }
+
+        private void shiftKeys(int start) {
+            int pos = start;
+            while (true) {
+                pos = (pos + 1) & mask;
+                long current = keys[pos];
+                if (current == EMPTY_KEY) {
+                    keys[start] = EMPTY_KEY;
+                    masks[start] = null;
+                    return;
+                }
+                int slot = mix(current) & mask;
+                if (start <= pos ? (start >= slot || slot > pos) : (start >= slot && slot > pos)) {
+                    keys[start] = current;
+                    masks[start] = masks[pos];
+                    start = pos;
+                }
+            }
+        }
+
+        private static int mix(long value) {
+            value ^= (value >>> 33);
+            value *= 0xff51afd7ed558ccdL;
+            value ^= (value >>> 33);
+            return (int) value;
+        }
+    }
+}
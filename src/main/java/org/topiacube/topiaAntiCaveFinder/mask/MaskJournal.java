@@ -0,0 +1,225 @@
+package org.topiacube.topiaAntiCaveFinder.mask;
+
+import org.bukkit.Bukkit;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+
+final class MaskJournal {
+
+    private static final int JOURNAL_MAGIC = 0x5441434A; // TACJ
+    private static final int JOURNAL_VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private static final byte OP_DEFINE_WORLD = 1;
+    private static final byte OP_DEFINE_STATE = 2;
+    private static final byte OP_TRACK = 3;
+    private static final byte OP_UNTRACK = 4;
+
+    private final File file;
+
+    private final ByteArrayOutputStream pendingBytes = new ByteArrayOutputStream(4096);
+    private final DataOutputStream pending = new DataOutputStream(pendingBytes);
+    private final Map<String, Integer> worldIds = new HashMap<>();
+    private final BitSet definedStates = new BitSet();
+
+    private long fileSize = -1L;
+
+    MaskJournal(File file) {
+        this.file = file;
+    }
+
+    synchronized void recordTrack(String worldName, int x, int y, int z, int paletteId, String serializedState) {
+        try {
+            int worldId = defineWorld(worldName);
+            if (!definedStates.get(paletteId)) {
+                pending.writeByte(OP_DEFINE_STATE);
+                pending.writeInt(paletteId);
+                pending.writeUTF(serializedState);
+                definedStates.set(paletteId);
+            }
+            pending.writeByte(OP_TRACK);
+            pending.writeShort(worldId);
+            pending.writeInt(x);
+            pending.writeInt(y);
+            pending.writeInt(z);
+            pending.writeInt(paletteId);
+        } catch (IOException impossible) {
+            throw new IllegalStateException(impossible);
+        }
+    }
+
+    synchronized void recordUntrack(String worldName, int x, int y, int z) {
+        try {
+            int worldId = defineWorld(worldName);
+            pending.writeByte(OP_UNTRACK);
+            pending.writeShort(worldId);
+            pending.writeInt(x);
+            pending.writeInt(y);
+            pending.writeInt(z);
+        } catch (IOException impossible) {
+            throw new IllegalStateException(impossible);
+        }
+    }
+
+    private int defineWorld(String worldName) throws IOException {
+        Integer existing = worldIds.get(worldName);
+        if (existing != null) {
+            return existing;
+        }
+        int id = worldIds.size();
+        pending.writeByte(OP_DEFINE_WORLD);
+        pending.writeShort(id);
+        pending.writeUTF(worldName);
+        worldIds.put(worldName, id);
+        return id;
+    }
+
+    synchronized void discardPending() {
+        // caller holds the manager lock and has already staged the chunks these records touch
+        pendingBytes.reset();
+        worldIds.clear();
+        definedStates.clear();
+    }
+
+    private synchronized byte[] drainPending() {
+        if (pendingBytes.size() == 0) {
+            return null;
+        }
+        byte[] bytes = pendingBytes.toByteArray();
+        pendingBytes.reset();
+        return bytes;
+    }
+
+    void flush() throws IOException {
+        // storage thread only
+        byte[] bytes = drainPending();
+        if (bytes == null) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            if (channel.size() < HEADER_SIZE) {
+                channel.truncate(0L);
+                writeFully(channel, header());
+            }
+            writeFully(channel, ByteBuffer.wrap(bytes));
+            channel.force(false);
+            fileSize = channel.size();
+        }
+    }
+
+    void truncate() throws IOException {
+        // storage thread only; every record on disk must already be reflected in the region files
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, header());
+            channel.force(false);
+            fileSize = HEADER_SIZE;
+        }
+    }
+
+    long sizeOnDisk() {
+        if (fileSize < 0L) {
+            fileSize = file.exists() ? file.length() : 0L;
+        }
+        return fileSize;
+    }
+
+    boolean hasRecordsOnDisk() {
+        return sizeOnDisk() > HEADER_SIZE;
+    }
+
+    int replay(ReplayHandler handler) {
+        if (!file.exists()) {
+            return 0;
+        }
+        Map<Integer, String> worlds = new HashMap<>();
+        Map<Integer, String> states = new HashMap<>();
+        int applied = 0;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (input.readInt() != JOURNAL_MAGIC) {
+                Bukkit.getLogger().warning("Tracked block journal has unknown signature, skipping replay.");
+                return 0;
+            }
+            int version = input.readInt();
+            if (version != JOURNAL_VERSION) {
+                Bukkit.getLogger().warning("Tracked block journal version mismatch (" + version + "), skipping replay.");
+                return 0;
+            }
+            while (true) {
+                int op = input.read();
+                if (op == -1) {
+                    break;
+                }
+                switch (op) {
+                    case OP_DEFINE_WORLD -> worlds.put(input.readUnsignedShort(), input.readUTF());
+                    case OP_DEFINE_STATE -> states.put(input.readInt(), input.readUTF());
+                    case OP_TRACK -> {
+                        String worldName = worlds.get(input.readUnsignedShort());
+                        int x = input.readInt();
+                        int y = input.readInt();
+                        int z = input.readInt();
+                        String state = states.get(input.readInt());
+                        if (worldName != null && state != null) {
+                            handler.track(worldName, x, y, z, state);
+                            applied++;
+                        }
+                    }
+                    case OP_UNTRACK -> {
+                        String worldName = worlds.get(input.readUnsignedShort());
+                        int x = input.readInt();
+                        int y = input.readInt();
+                        int z = input.readInt();
+                        if (worldName != null) {
+                            handler.untrack(worldName, x, y, z);
+                            applied++;
+                        }
+                    }
+                    default -> {
+                        Bukkit.getLogger().warning("Tracked block journal contains unknown record " + op + ", stopping replay.");
+                        return applied;
+                    }
+                }
+            }
+        } catch (EOFException eof) {
+            Bukkit.getLogger().warning("Tracked block journal ends with a partial record, ignoring it.");
+        } catch (IOException exception) {
+            Bukkit.getLogger().log(Level.SEVERE, "Failed to replay tracked block journal", exception);
+        }
+        return applied;
+    }
+
+    private static ByteBuffer header() {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(JOURNAL_MAGIC);
+        header.putInt(JOURNAL_VERSION);
+        header.flip();
+        return header;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    interface ReplayHandler {
+        void track(String worldName, int x, int y, int z, String serializedState);
+
+        void untrack(String worldName, int x, int y, int z);
+    }
+}
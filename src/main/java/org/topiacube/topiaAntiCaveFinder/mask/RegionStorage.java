@@ -0,0 +1,252 @@
+package org.topiacube.topiaAntiCaveFinder.mask;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+final class RegionStorage {
+
+    static final int REGION_SHIFT = 5;
+    static final int REGION_SIZE = 1 << REGION_SHIFT;
+    private static final int REGION_MASK = REGION_SIZE - 1;
+    private static final int CHUNKS_PER_REGION = REGION_SIZE * REGION_SIZE;
+
+    private static final int REGION_MAGIC = 0x54414352; // TACR
+    private static final int REGION_VERSION = 1;
+    private static final int PREAMBLE_SIZE = 8;
+    private static final int ENTRY_SIZE = 12;
+    private static final int HEADER_SIZE = PREAMBLE_SIZE + (CHUNKS_PER_REGION * ENTRY_SIZE);
+    private static final String REGION_EXTENSION = ".tacr";
+
+    private final File root;
+    // only region headers are cached; record bytes are read on demand, so no handle outlives a read
+    private final Map<RegionKey, RegionFile> regions = new ConcurrentHashMap<>();
+    // readers share it; a write holds it exclusively while the file is replaced, so no reader pairs an old header with a new file
+    private final ReadWriteLock fileLock = new ReentrantReadWriteLock();
+
+    RegionStorage(File root) {
+        this.root = root;
+    }
+
+    ChunkRecord read(String worldName, int chunkX, int chunkZ) throws IOException {
+        // safe from any thread
+        fileLock.readLock().lock();
+        try {
+            return region(RegionKey.of(worldName, chunkX, chunkZ)).record(localIndex(chunkX, chunkZ));
+        } finally {
+            fileLock.readLock().unlock();
+        }
+    }
+
+    void write(RegionKey regionKey, Map<Integer, ChunkRecord> updates) throws IOException {
+        // storage thread only; an empty record removes the chunk from the region
+        ChunkRecord[] records;
+        fileLock.readLock().lock();
+        try {
+            records = region(regionKey).records();
+        } finally {
+            fileLock.readLock().unlock();
+        }
+        for (Map.Entry<Integer, ChunkRecord> update : updates.entrySet()) {
+            ChunkRecord record = update.getValue();
+            records[update.getKey()] = record.isEmpty() ? null : record;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(REGION_MAGIC);
+        header.putInt(REGION_VERSION);
+        long position = HEADER_SIZE;
+        boolean empty = true;
+        for (ChunkRecord record : records) {
+            if (record == null) {
+                header.putInt(0).putInt(0).putInt(0);
+                continue;
+            }
+            if (position + record.length() > Integer.MAX_VALUE) {
+                throw new IOException("Region " + regionKey + " exceeds the maximum region file size");
+            }
+            header.putInt((int) position).putInt(record.length()).putInt(record.blockCount());
+            position += record.length();
+            empty = false;
+        }
+        header.flip();
+
+        File target = regionFile(regionKey);
+        if (empty) {
+            fileLock.writeLock().lock();
+            try {
+                regions.put(regionKey, RegionFile.MISSING);
+                Files.deleteIfExists(target.toPath());
+            } finally {
+                fileLock.writeLock().unlock();
+            }
+            return;
+        }
+
+        File parent = target.getParentFile();
+        if (!parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Could not create region folder: " + parent.getAbsolutePath());
+        }
+        File tempFile = new File(parent, target.getName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tempFile.toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, header);
+            for (ChunkRecord record : records) {
+                if (record != null) {
+                    writeFully(channel, record.data().duplicate());
+                }
+            }
+            channel.force(false);
+        }
+        fileLock.writeLock().lock();
+        try {
+            regions.remove(regionKey);
+            try {
+                Files.move(tempFile.toPath(), target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException unsupported) {
+                Files.move(tempFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            fileLock.writeLock().unlock();
+        }
+    }
+
+    private RegionFile region(RegionKey regionKey) throws IOException {
+        // callers hold the read lock
+        RegionFile cached = regions.get(regionKey);
+        if (cached != null) {
+            return cached;
+        }
+        RegionFile opened = open(regionFile(regionKey));
+        RegionFile previous = regions.putIfAbsent(regionKey, opened);
+        return previous != null ? previous : opened;
+    }
+
+    private static RegionFile open(File file) throws IOException {
+        if (!file.exists()) {
+            return RegionFile.MISSING;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            readFully(channel, header, 0L);
+            header.flip();
+            if (header.remaining() < PREAMBLE_SIZE || header.getInt(0) != REGION_MAGIC) {
+                throw new IOException("Region file has unknown signature: " + file.getAbsolutePath());
+            }
+            int version = header.getInt(4);
+            if (version != REGION_VERSION) {
+                throw new IOException("Region file version mismatch (" + version + "): " + file.getAbsolutePath());
+            }
+            if (header.remaining() < HEADER_SIZE) {
+                throw new IOException("Region file is truncated: " + file.getAbsolutePath());
+            }
+            long size = channel.size();
+            int[] entries = new int[CHUNKS_PER_REGION * 3];
+            header.position(PREAMBLE_SIZE);
+            for (int i = 0; i < entries.length; i += 3) {
+                int offset = header.getInt();
+                int length = header.getInt();
+                if (length > 0 && (offset < HEADER_SIZE || (long) offset + length > size)) {
+                    throw new IOException("Region record " + (i / 3) + " lies outside of the file: " + file.getAbsolutePath());
+                }
+                entries[i] = offset;
+                entries[i + 1] = length;
+                entries[i + 2] = header.getInt();
+            }
+            return new RegionFile(file, entries);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                return;
+            }
+            position += read;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private File regionFile(RegionKey regionKey) {
+        File worldFolder = new File(root, regionKey.worldName());
+        return new File(worldFolder, "r." + regionKey.regionX() + "." + regionKey.regionZ() + REGION_EXTENSION);
+    }
+
+    static int localIndex(int chunkX, int chunkZ) {
+        return ((chunkZ & REGION_MASK) << REGION_SHIFT) | (chunkX & REGION_MASK);
+    }
+
+    record RegionKey(String worldName, int regionX, int regionZ) {
+        static RegionKey of(String worldName, int chunkX, int chunkZ) {
+            return new RegionKey(worldName, chunkX >> REGION_SHIFT, chunkZ >> REGION_SHIFT);
+        }
+    }
+
+    private static final class RegionFile {
+        private static final RegionFile MISSING = new RegionFile(null, new int[CHUNKS_PER_REGION * 3]);
+
+        private final File file;
+        // offset, length and block count per chunk
+        private final int[] entries;
+
+        private RegionFile(File file, int[] entries) {
+            this.file = file;
+            this.entries = entries;
+        }
+
+        int length(int local) {
+            return entries[(local * 3) + 1];
+        }
+
+        ChunkRecord record(int local) throws IOException {
+            if (length(local) <= 0) {
+                return null;
+            }
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                return read(channel, local);
+            }
+        }
+
+        ChunkRecord[] records() throws IOException {
+            ChunkRecord[] records = new ChunkRecord[CHUNKS_PER_REGION];
+            if (file == null) {
+                return records;
+            }
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                for (int local = 0; local < CHUNKS_PER_REGION; local++) {
+                    if (length(local) > 0) {
+                        records[local] = read(channel, local);
+                    }
+                }
+            }
+            return records;
+        }
+
+        private ChunkRecord read(FileChannel channel, int local) throws IOException {
+            int entry = local * 3;
+            ByteBuffer data = ByteBuffer.allocate(entries[entry + 1]);
+            readFully(channel, data, entries[entry]);
+            if (data.hasRemaining()) {
+                throw new IOException("Region record " + local + " is truncated: " + file.getAbsolutePath());
+            }
+            data.flip();
+            return new ChunkRecord(data, entries[entry + 2]);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package org.topiacube.topiaAntiCaveFinder.mask;
+
+import org.bukkit.Bukkit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+final class StoragePalette {
+
+    private static final int PALETTE_MAGIC = 0x54414350; // TACP
+    private static final int PALETTE_VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private final File file;
+    private final Map<String, Integer> ids = new HashMap<>();
+
+    // appended copy-on-write so chunk decoders can read it without locking
+    private volatile String[] states = new String[0];
+    private int persistedCount;
+
+    StoragePalette(File file) {
+        this.file = file;
+    }
+
+    synchronized void load() throws IOException {
+        ids.clear();
+        states = new String[0];
+        persistedCount = 0;
+        if (!file.exists()) {
+            return;
+        }
+        ByteBuffer input = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        if (input.remaining() < HEADER_SIZE || input.getInt() != PALETTE_MAGIC) {
+            throw new IOException("Block state palette has unknown signature: " + file.getAbsolutePath());
+        }
+        int version = input.getInt();
+        if (version != PALETTE_VERSION) {
+            throw new IOException("Block state palette version mismatch (" + version + "): " + file.getAbsolutePath());
+        }
+        List<String> loaded = new ArrayList<>();
+        int validLength = input.position();
+        try {
+            while (input.hasRemaining()) {
+                byte[] bytes = new byte[input.getShort() & 0xFFFF];
+                input.get(bytes);
+                loaded.add(new String(bytes, StandardCharsets.UTF_8));
+                validLength = input.position();
+            }
+        } catch (BufferUnderflowException partial) {
+            // a torn append: no region references it yet because ids are forced before regions are written
+            Bukkit.getLogger().warning("Block state palette ends with a partial entry, dropping it.");
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+            }
+        }
+        for (int i = 0; i < loaded.size(); i++) {
+            ids.putIfAbsent(loaded.get(i), i);
+        }
+        states = loaded.toArray(new String[0]);
+        persistedCount = loaded.size();
+    }
+
+    String get(int id) {
+        String[] current = states;
+        return id >= 0 && id < current.length ? current[id] : null;
+    }
+
+    synchronized int idOf(String serialized) {
+        Integer existing = ids.get(serialized);
+        if (existing != null) {
+            return existing;
+        }
+        String[] current = states;
+        int id = current.length;
+        String[] grown = Arrays.copyOf(current, id + 1);
+        grown[id] = serialized;
+        states = grown;
+        ids.put(serialized, id);
+        return id;
+    }
+
+    synchronized void flush() throws IOException {
+        // must complete before any region referencing the new ids is written
+        String[] current = states;
+        if (persistedCount == current.length) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            for (int i = persistedCount; i < current.length; i++) {
+                output.writeUTF(current[i]);
+            }
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            if (channel.size() < HEADER_SIZE) {
+                channel.truncate(0L);
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(PALETTE_MAGIC);
+                header.putInt(PALETTE_VERSION);
+                header.flip();
+                writeFully(channel, header);
+            }
+            writeFully(channel, ByteBuffer.wrap(bytes.toByteArray()));
+            channel.force(false);
+        }
+        persistedCount = current.length;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
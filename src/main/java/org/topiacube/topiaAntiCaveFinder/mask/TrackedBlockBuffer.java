@@ -0,0 +1,50 @@
+package org.topiacube.topiaAntiCaveFinder.mask;
+
+import java.util.Arrays;
+
+public final class TrackedBlockBuffer {
+    private static final int DEFAULT_CAPACITY = 64;
+
+    // parallel arrays: BlockPositions-packed coordinates and CaveMaskManager palette ids
+    private long[] positions = new long[DEFAULT_CAPACITY];
+    private int[] paletteIds = new int[DEFAULT_CAPACITY];
+    private int size;
+
+    public void add(long position, int paletteId) {
+        if (size == positions.length) {
+            ensureCapacity(size + 1);
+        }
+        positions[size] = position;
+        paletteIds[size] = paletteId;
+        size++;
+    }
+
+    public void ensureCapacity(int capacity) {
+        if (capacity <= positions.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, positions.length << 1);
+        positions = Arrays.copyOf(positions, newCapacity);
+        paletteIds = Arrays.copyOf(paletteIds, newCapacity);
+    }
+
+    public long[] positions() {
+        return positions;
+    }
+
+    public int[] paletteIds() {
+        return paletteIds;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+}
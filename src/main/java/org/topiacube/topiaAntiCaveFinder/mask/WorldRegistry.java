@@ -0,0 +1,54 @@
+package org.topiacube.topiaAntiCaveFinder.mask;
+
+import org.bukkit.World;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+public final class WorldRegistry {
+
+    public static final int NO_WORLD = -1;
+
+    private static final ConcurrentHashMap<String, Integer> IDS = new ConcurrentHashMap<>();
+    // appended copy-on-write; ids are never reused, so a key outliving its world cannot alias another one
+    private static volatile String[] names = new String[0];
+
+    private WorldRegistry() {
+    }
+
+    public static int register(World world) {
+        return world != null ? idOf(world.getName()) : NO_WORLD;
+    }
+
+    public static int idOf(World world) {
+        return world != null ? idOf(world.getName()) : NO_WORLD;
+    }
+
+    public static int idOf(String worldName) {
+        if (worldName == null) {
+            return NO_WORLD;
+        }
+        Integer existing = IDS.get(worldName);
+        return existing != null ? existing : assign(worldName);
+    }
+
+    public static String nameOf(int worldId) {
+        String[] current = names;
+        return worldId >= 0 && worldId < current.length ? current[worldId] : null;
+    }
+
+    private static synchronized int assign(String worldName) {
+        Integer existing = IDS.get(worldName);
+        if (existing != null) {
+            return existing;
+        }
+        String[] current = names;
+        int id = current.length;
+        String[] grown = Arrays.copyOf(current, id + 1);
+        grown[id] = worldName;
+        // the name is visible before the id is handed out
+        names = grown;
+        IDS.put(worldName, id);
+        return id;
+    }
+}
@@ -0,0 +1,130 @@
+package org.topiacube.topiaAntiCaveFinder.player;
+
+import org.bukkit.block.data.BlockData;
+import org.topiacube.topiaAntiCaveFinder.util.BlockPositions;
+import org.topiacube.topiaAntiCaveFinder.util.LongHashSet;
+
+import java.util.Arrays;
+
+final class BlockChangeQueue {
+
+    private static final int OUT_OF_VIEW_RANK = 0x40000000;
+    private static final int MAX_DISTANCE_RANK = OUT_OF_VIEW_RANK - 1;
+    private static final int DROPPED = Integer.MIN_VALUE;
+
+    // outbound changes in enqueue order; a null mask shows whatever the block is when the change leaves
+    private long[] positions = new long[16];
+    private int[] worldIds = new int[16];
+    private BlockData[] masks = new BlockData[16];
+    private int size;
+    private final LongHashSet seenPositions = new LongHashSet();
+    private long[] orderBuffer = new long[0];
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void add(int worldId, long position, BlockData mask) {
+        if (size == positions.length) {
+            int capacity = size << 1;
+            positions = Arrays.copyOf(positions, capacity);
+            worldIds = Arrays.copyOf(worldIds, capacity);
+            masks = Arrays.copyOf(masks, capacity);
+        }
+        positions[size] = position;
+        worldIds[size] = worldId;
+        masks[size] = mask;
+        size++;
+    }
+
+    void clear() {
+        Arrays.fill(masks, 0, size, null);
+        size = 0;
+    }
+
+    void drainInto(ChangeConsumer consumer, int budget,
+                   double eyeX, double eyeY, double eyeZ,
+                   double dirX, double dirY, double dirZ, double fovCos) {
+        // budget <= 0 drains everything; otherwise the nearest in-view changes leave first
+        supersede();
+        if (budget <= 0 || size <= budget) {
+            for (int i = 0; i < size; i++) {
+                consumer.accept(worldIds[i], positions[i], masks[i]);
+            }
+            clear();
+            return;
+        }
+        long[] order = borrowOrderBuffer(size);
+        for (int i = 0; i < size; i++) {
+            order[i] = ((long) rank(positions[i], eyeX, eyeY, eyeZ, dirX, dirY, dirZ, fovCos) << 32) | i;
+        }
+        Arrays.sort(order, 0, size);
+        for (int i = 0; i < budget; i++) {
+            int index = (int) order[i];
+            consumer.accept(worldIds[index], positions[index], masks[index]);
+            worldIds[index] = DROPPED;
+        }
+        compact();
+    }
+
+    private void supersede() {
+        // a later change for the same block replaces any that is still waiting
+        seenPositions.clear();
+        boolean superseded = false;
+        for (int i = size - 1; i >= 0; i--) {
+            if (!seenPositions.add(positions[i])) {
+                worldIds[i] = DROPPED;
+                superseded = true;
+            }
+        }
+        if (superseded) {
+            compact();
+        }
+    }
+
+    private void compact() {
+        int write = 0;
+        for (int read = 0; read < size; read++) {
+            if (worldIds[read] == DROPPED) {
+                continue;
+            }
+            positions[write] = positions[read];
+            worldIds[write] = worldIds[read];
+            masks[write] = masks[read];
+            write++;
+        }
+        Arrays.fill(masks, write, size, null);
+        size = write;
+    }
+
+    private long[] borrowOrderBuffer(int size) {
+        if (orderBuffer.length < size) {
+            orderBuffer = new long[Math.max(size, orderBuffer.length * 2 + 16)];
+        }
+        return orderBuffer;
+    }
+
+    private static int rank(long position,
+                            double eyeX, double eyeY, double eyeZ,
+                            double dirX, double dirY, double dirZ, double fovCos) {
+        double dx = BlockPositions.unpackX(position) + 0.5 - eyeX;
+        double dy = BlockPositions.unpackY(position) + 0.5 - eyeY;
+        double dz = BlockPositions.unpackZ(position) + 0.5 - eyeZ;
+        double distanceSquared = dx * dx + dy * dy + dz * dz;
+        int rank = (int) Math.min(distanceSquared, MAX_DISTANCE_RANK);
+        double dot = dx * dirX + dy * dirY + dz * dirZ;
+        if (dot < fovCos * Math.sqrt(distanceSquared)) {
+            rank |= OUT_OF_VIEW_RANK;
+        }
+        return rank;
+    }
+
+    @FunctionalInterface
+    interface ChangeConsumer {
+        void accept(int worldId, long position, BlockData mask);
+    }
+}
@@ -0,0 +1,316 @@
+package org.topiacube.topiaAntiCaveFinder.player;
+
+import org.topiacube.topiaAntiCaveFinder.util.TimingWheel;
+
+import java.util.Arrays;
+
+final class BlockStateTable {
+
+    static final int MASKED = 1;
+    static final int REVEALED = 2;
+    static final int DISPLAY_MASK = MASKED | REVEALED;
+    static final int PASSIVE = 4;
+
+    private static final long EMPTY_KEY = Long.MIN_VALUE;
+    private static final int NOT_SCHEDULED = Integer.MIN_VALUE;
+    private static final int INITIAL_CAPACITY = 64;
+    private static final float LOAD_FACTOR = 0.6f;
+
+    // keyed by packed block position; flags, last sent tick and passive expiry live in parallel columns
+    private long[] keys;
+    private byte[] flags;
+    private int[] sentTicks;
+    private int[] passiveExpiry;
+    private int[] wheelDeadlines;
+    private int[] generations;
+    private int[] entryIndex;
+    private int mask;
+    private int size;
+    private int threshold;
+    private int passiveCount;
+    // at most one live wheel entry per position; an extended window is rescheduled when its old deadline comes up
+    private final TimingWheel passiveWheel = new TimingWheel();
+    private final TimingWheel.ExpiryConsumer passiveExpiryHandler = this::expirePassive;
+    private int expiryTick;
+    // positions in a dense list; the ones stamped with touchedGeneration are kept in front of the rest
+    private long[] entries = new long[INITIAL_CAPACITY];
+    private int touchedGeneration;
+    private int touchedCount;
+
+    BlockStateTable() {
+        allocateArrays(INITIAL_CAPACITY);
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int passiveCount() {
+        return passiveCount;
+    }
+
+    int capacity() {
+        return keys.length;
+    }
+
+    int find(long key) {
+        int pos = mix(key) & mask;
+        while (true) {
+            long current = keys[pos];
+            if (current == EMPTY_KEY) {
+                return -1;
+            }
+            if (current == key) {
+                return pos;
+            }
+            pos = (pos + 1) & mask;
+        }
+    }
+
+    int insert(long key) {
+        // returns the slot for the key; new entries start with no flags set
+        if (size + 1 > threshold) {
+            rehash(keys.length << 1);
+        }
+        int pos = mix(key) & mask;
+        while (true) {
+            long current = keys[pos];
+            if (current == EMPTY_KEY) {
+                keys[pos] = key;
+                flags[pos] = 0;
+                wheelDeadlines[pos] = NOT_SCHEDULED;
+                generations[pos] = touchedGeneration - 1;
+                if (size == entries.length) {
+                    entries = Arrays.copyOf(entries, size << 1);
+                }
+                entries[size] = key;
+                entryIndex[pos] = size;
+                size++;
+                return pos;
+            }
+            if (current == key) {
+                return pos;
+            }
+            pos = (pos + 1) & mask;
+        }
+    }
+
+    void touch(int slot, int generation) {
+        if (touchedGeneration != generation) {
+            touchedGeneration = generation;
+            touchedCount = 0;
+        } else if (generations[slot] == generation) {
+            return;
+        }
+        generations[slot] = generation;
+        int index = entryIndex[slot];
+        if (index >= touchedCount) {
+            moveEntry(touchedCount, index);
+            entryIndex[slot] = touchedCount;
+            entries[touchedCount] = keys[slot];
+            touchedCount++;
+        }
+    }
+
+    int untouchedStart(int generation) {
+        // entries from here to size() were not touched in the given generation
+        return touchedGeneration == generation ? touchedCount : 0;
+    }
+
+    long entryAt(int index) {
+        return entries[index];
+    }
+
+    long keyAt(int slot) {
+        return keys[slot];
+    }
+
+    boolean isOccupied(int slot) {
+        return keys[slot] != EMPTY_KEY;
+    }
+
+    int flagsAt(int slot) {
+        return flags[slot];
+    }
+
+    int sentTickAt(int slot) {
+        return sentTicks[slot];
+    }
+
+    int passiveExpiryAt(int slot) {
+        return passiveExpiry[slot];
+    }
+
+    void setDisplay(int slot, int display, int tick) {
+        // a fresh send replaces any passive reveal window
+        if ((flags[slot] & PASSIVE) != 0) {
+            passiveCount--;
+        }
+        flags[slot] = (byte) (display & DISPLAY_MASK);
+        sentTicks[slot] = tick;
+    }
+
+    void setPassive(int slot, int expiry) {
+        if ((flags[slot] & PASSIVE) == 0) {
+            flags[slot] |= PASSIVE;
+            passiveCount++;
+        }
+        passiveExpiry[slot] = expiry;
+        // a later expiry is picked up when the pending deadline fires, an earlier one needs its own entry
+        if (wheelDeadlines[slot] == NOT_SCHEDULED || expiry < wheelDeadlines[slot]) {
+            wheelDeadlines[slot] = expiry;
+            passiveWheel.schedule(keys[slot], expiry);
+        }
+    }
+
+    void clearPassive(int slot) {
+        // returns the slot to the table once neither a display state nor a passive window is left
+        if ((flags[slot] & PASSIVE) == 0) {
+            return;
+        }
+        flags[slot] &= ~PASSIVE;
+        passiveCount--;
+        if (flags[slot] == 0) {
+            removeAt(slot);
+        }
+    }
+
+    void removeAt(int slot) {
+        if ((flags[slot] & PASSIVE) != 0) {
+            passiveCount--;
+        }
+        int index = entryIndex[slot];
+        if (index < touchedCount) {
+            // the last touched entry fills the hole so the touched prefix stays contiguous
+            touchedCount--;
+            moveEntry(touchedCount, index);
+            index = touchedCount;
+        }
+        moveEntry(size - 1, index);
+        shiftKeys(slot);
+        size--;
+    }
+
+    void removeExpiredPassive(int tick) {
+        expiryTick = tick;
+        passiveWheel.poll(tick, passiveExpiryHandler);
+    }
+
+    void clear() {
+        if (keys.length == INITIAL_CAPACITY) {
+            Arrays.fill(keys, EMPTY_KEY);
+        } else {
+            allocateArrays(INITIAL_CAPACITY);
+        }
+        size = 0;
+        passiveCount = 0;
+        touchedCount = 0;
+        passiveWheel.clear();
+    }
+
+    private void expirePassive(long key, int deadline) {
+        // entries left behind by removed positions no longer match the slot's deadline and are dropped
+        int slot = find(key);
+        if (slot < 0 || wheelDeadlines[slot] != deadline) {
+            return;
+        }
+        wheelDeadlines[slot] = NOT_SCHEDULED;
+        if ((flags[slot] & PASSIVE) == 0) {
+            return;
+        }
+        if (passiveExpiry[slot] >= expiryTick) {
+            wheelDeadlines[slot] = passiveExpiry[slot];
+            passiveWheel.schedule(key, passiveExpiry[slot]);
+            return;
+        }
+        clearPassive(slot);
+    }
+
+    private void allocateArrays(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY_KEY);
+        flags = new byte[capacity];
+        sentTicks = new int[capacity];
+        passiveExpiry = new int[capacity];
+        wheelDeadlines = new int[capacity];
+        generations = new int[capacity];
+        entryIndex = new int[capacity];
+        mask = capacity - 1;
+        threshold = Math.max(1, (int) (capacity * LOAD_FACTOR));
+    }
+
+    private void rehash(int newCapacity) {
+        long[] oldKeys = keys;
+        byte[] oldFlags = flags;
+        int[] oldSentTicks = sentTicks;
+        int[] oldPassiveExpiry = passiveExpiry;
+        int[] oldWheelDeadlines = wheelDeadlines;
+        int[] oldGenerations = generations;
+        int[] oldEntryIndex = entryIndex;
+        allocateArrays(newCapacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key == EMPTY_KEY) {
+                continue;
+            }
+            int pos = mix(key) & mask;
+            while (keys[pos] != EMPTY_KEY) {
+                pos = (pos + 1) & mask;
+            }
+            keys[pos] = key;
+            flags[pos] = oldFlags[i];
+            sentTicks[pos] = oldSentTicks[i];
+            passiveExpiry[pos] = oldPassiveExpiry[i];
+            wheelDeadlines[pos] = oldWheelDeadlines[i];
+            generations[pos] = oldGenerations[i];
+            entryIndex[pos] = oldEntryIndex[i];
+        }
+    }
+
+    private void shiftKeys(int start) {
+        int pos = start;
+        while (true) {
+            pos = (pos + 1) & mask;
+            long current = keys[pos];
+            if (current == EMPTY_KEY) {
+                keys[start] = EMPTY_KEY;
+                flags[start] = 0;
+                return;
+            }
+            int slot = mix(current) & mask;
+            if (start <= pos ? (start >= slot || slot > pos) : (start >= slot && slot > pos)) {
+                keys[start] = current;
+                flags[start] = flags[pos];
+                sentTicks[start] = sentTicks[pos];
+                passiveExpiry[start] = passiveExpiry[pos];
+                wheelDeadlines[start] = wheelDeadlines[pos];
+                generations[start] = generations[pos];
+                entryIndex[start] = entryIndex[pos];
+                start = pos;
+            }
+        }
+    }
+
+    private void moveEntry(int from, int to) {
+        // copies the entry at from into to and repoints its slot; the caller owns whatever was at to
+        if (from == to) {
+            return;
+        }
+        long key = entries[from];
+        entries[to] = key;
+        entryIndex[find(key)] = to;
+    }
+
+    private static int mix(long value) {
+        value ^= (value >>> 33);
+        value *= 0xff51afd7ed558ccdL;
+        value ^= (value >>> 33);
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= (value >>> 33);
+        return (int) value;
+    }
+}
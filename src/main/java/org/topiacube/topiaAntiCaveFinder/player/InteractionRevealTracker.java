@@ -2,15 +2,19 @@ package org.topiacube.topiaAntiCaveFinder.player;
 
 import org.bukkit.entity.Player;
 import org.topiacube.topiaAntiCaveFinder.mask.BlockKey;
+import org.topiacube.topiaAntiCaveFinder.util.BlockPositions;
+import org.topiacube.topiaAntiCaveFinder.util.LongIntHashMap;
+import org.topiacube.topiaAntiCaveFinder.util.TimingWheel;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
 final class InteractionRevealTracker {
 
-    private final Map<BlockKey, Integer> expiry = new HashMap<>();
+    // expiry ticks by packed position, one table per world id
+    private WorldReveals[] reveals = new WorldReveals[0];
     private final Map<UUID, PlayerViewSession> sessions;
 
     InteractionRevealTracker(Map<UUID, PlayerViewSession> sessions) {
@@ -18,11 +22,13 @@ final class InteractionRevealTracker {
     }
 
     void revealToPlayers(Set<Player> players, BlockKey key, int durationTicks, int currentTick) {
-        int expireTick = currentTick + durationTicks;
         for (Player player : players) {
             reveal(player, key, currentTick);
-            if (durationTicks > 0) {
-                expiry.merge(key, expireTick, Math::max);
+        }
+        if (durationTicks > 0 && !players.isEmpty()) {
+            WorldReveals world = revealsFor(key.getWorldId(), true);
+            if (world != null) {
+                world.extend(positionOf(key), currentTick + durationTicks);
             }
         }
     }
@@ -38,29 +44,95 @@ final class InteractionRevealTracker {
     }
 
     boolean isActive(BlockKey key, int tick) {
-        Integer expire = expiry.get(key);
-        if (expire == null) {
+        WorldReveals world = revealsFor(key.getWorldId(), false);
+        if (world == null) {
+            return false;
+        }
+        long position = positionOf(key);
+        int expire = world.expiry.get(position);
+        if (expire == LongIntHashMap.NO_VALUE) {
             return false;
         }
         if (expire >= tick) {
             return true;
         }
-        expiry.remove(key);
+        world.expiry.remove(position);
         return false;
     }
 
     void cleanupExpired(int tick) {
-        if (expiry.isEmpty()) {
-            return;
+        for (WorldReveals world : reveals) {
+            if (world != null && !world.wheel.isEmpty()) {
+                world.expire(tick);
+            }
         }
-        expiry.entrySet().removeIf(entry -> entry.getValue() < tick);
     }
 
     void remove(BlockKey key) {
-        expiry.remove(key);
+        WorldReveals world = revealsFor(key.getWorldId(), false);
+        if (world != null) {
+            world.expiry.remove(positionOf(key));
+        }
     }
 
     void clear() {
-        expiry.clear();
+        reveals = new WorldReveals[0];
+    }
+
+    private WorldReveals revealsFor(int worldId, boolean create) {
+        if (worldId < 0) {
+            return null;
+        }
+        if (worldId >= reveals.length) {
+            if (!create) {
+                return null;
+            }
+            reveals = Arrays.copyOf(reveals, worldId + 1);
+        }
+        WorldReveals world = reveals[worldId];
+        if (world == null && create) {
+            world = new WorldReveals();
+            reveals[worldId] = world;
+        }
+        return world;
+    }
+
+    private static long positionOf(BlockKey key) {
+        return BlockPositions.pack(key.getX(), key.getY(), key.getZ());
+    }
+
+    private static final class WorldReveals {
+        private final LongIntHashMap expiry = new LongIntHashMap();
+        // holds one entry per position, at the deadline it had when it was scheduled
+        private final TimingWheel wheel = new TimingWheel();
+        private final TimingWheel.ExpiryConsumer expiryHandler = this::onDeadline;
+        private int expiryTick;
+
+        void extend(long position, int expireTick) {
+            int current = expiry.get(position);
+            if (current == LongIntHashMap.NO_VALUE) {
+                expiry.put(position, expireTick);
+                wheel.schedule(position, expireTick);
+            } else if (expireTick > current) {
+                expiry.put(position, expireTick);
+            }
+        }
+
+        void expire(int tick) {
+            expiryTick = tick;
+            wheel.poll(tick, expiryHandler);
+        }
+
+        private void onDeadline(long position, int deadline) {
+            int current = expiry.get(position);
+            if (current == LongIntHashMap.NO_VALUE) {
+                return;
+            }
+            if (current >= expiryTick) {
+                wheel.schedule(position, current);
+            } else {
+                expiry.remove(position);
+            }
+        }
     }
 }
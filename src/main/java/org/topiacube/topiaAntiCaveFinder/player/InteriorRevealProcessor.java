@@ -7,11 +7,11 @@ import org.bukkit.block.BlockFace;
 import org.bukkit.entity.Player;
 import org.topiacube.topiaAntiCaveFinder.config.PluginConfig;
 import org.topiacube.topiaAntiCaveFinder.mask.BlockKey;
+import org.topiacube.topiaAntiCaveFinder.mask.WorldRegistry;
+import org.topiacube.topiaAntiCaveFinder.util.BlockPositions;
 import org.topiacube.topiaAntiCaveFinder.util.LongArrayQueue;
 import org.topiacube.topiaAntiCaveFinder.util.LongHashSet;
 
-import java.util.Set;
-
 final class InteriorRevealProcessor {
     private static final double INTERIOR_REVEAL_PADDING = 1.5;
     private static final BlockFace[] NEIGHBOR_FACES = {
@@ -29,8 +29,7 @@ final class InteriorRevealProcessor {
                         PlayerViewSession session,
                         PluginConfig config,
                         Location origin,
-                        String worldName,
-                        Set<BlockKey> activeKeys,
+                        int worldId,
                         int tick) {
         double radius = config.getInteriorRevealRadius();
         if (radius <= 0.0 || origin == null) {
@@ -59,13 +58,13 @@ final class InteriorRevealProcessor {
         double originX = origin.getX();
         double originY = origin.getY();
         double originZ = origin.getZ();
-        String effectiveWorldName = worldName != null ? worldName : BlockKey.canonicalWorldName(world.getName());
+        int effectiveWorldId = worldId != WorldRegistry.NO_WORLD ? worldId : WorldRegistry.idOf(world);
 
         while (!queue.isEmpty()) {
             long packed = queue.pollFirst();
-            int x = unpackBlockX(packed);
-            int y = unpackBlockY(packed);
-            int z = unpackBlockZ(packed);
+            int x = BlockPositions.unpackX(packed);
+            int y = BlockPositions.unpackY(packed);
+            int z = BlockPositions.unpackZ(packed);
 
             double dx = (x + 0.5) - originX;
             double dy = (y + 0.5) - originY;
@@ -82,16 +81,14 @@ final class InteriorRevealProcessor {
                 continue;
             }
 
-            BlockKey key = effectiveWorldName != null
-                ? BlockKey.ofInterned(effectiveWorldName, x, y, z)
-                : BlockKey.of(null, x, y, z);
-            boolean added = activeKeys.add(key);
+            BlockKey key = BlockKey.of(effectiveWorldId, x, y, z);
+            boolean added = session.markActive(BlockPositions.pack(x, y, z));
             if (!added && !session.isMasked(key)) {
                 continue;
             }
             session.applyReveal(player, key, tick);
             session.markPassiveReveal(key, tick);
-            revealBoundaryLayers(player, session, world, effectiveWorldName, block, activeKeys, tick);
+            revealBoundaryLayers(player, session, world, effectiveWorldId, block, tick);
 
             for (BlockFace face : NEIGHBOR_FACES) {
                 int neighborX = block.getX() + face.getModX();
@@ -104,7 +101,7 @@ final class InteriorRevealProcessor {
                 if (!BlockMaterialUtil.isInteriorTraversable(neighbor.getType())) {
                     continue;
                 }
-                long neighborPacked = packBlockPosition(neighborX, neighborY, neighborZ);
+                long neighborPacked = BlockPositions.pack(neighborX, neighborY, neighborZ);
                 if (visited.add(neighborPacked)) {
                     queue.addLast(neighborPacked);
                 }
@@ -116,9 +113,8 @@ final class InteriorRevealProcessor {
     private static void revealBoundaryLayers(Player player,
                                              PlayerViewSession session,
                                              World world,
-                                             String worldName,
+                                             int worldId,
                                              Block origin,
-                                             Set<BlockKey> activeKeys,
                                              int tick) {
         for (BlockFace face : NEIGHBOR_FACES) {
             int boundaryX = origin.getX() + face.getModX();
@@ -128,7 +124,7 @@ final class InteriorRevealProcessor {
                 continue;
             }
             Block boundary = world.getBlockAt(boundaryX, boundaryY, boundaryZ);
-            revealLayerBlock(player, session, boundary, worldName, activeKeys, tick);
+            revealLayerBlock(player, session, boundary, worldId, tick);
 
             if (BlockMaterialUtil.isInteriorTraversable(boundary.getType())) {
                 continue;
@@ -141,23 +137,20 @@ final class InteriorRevealProcessor {
                 continue;
             }
             Block second = world.getBlockAt(secondX, secondY, secondZ);
-            revealLayerBlock(player, session, second, worldName, activeKeys, tick);
+            revealLayerBlock(player, session, second, worldId, tick);
         }
     }
 
     private static void revealLayerBlock(Player player,
                                          PlayerViewSession session,
                                          Block block,
-                                         String worldName,
-                                         Set<BlockKey> activeKeys,
+                                         int worldId,
                                          int tick) {
         if (block == null) {
             return;
         }
-        BlockKey key = worldName != null
-            ? BlockKey.ofInterned(worldName, block.getX(), block.getY(), block.getZ())
-            : BlockKey.of(null, block.getX(), block.getY(), block.getZ());
-        boolean added = activeKeys.add(key);
+        BlockKey key = BlockKey.of(worldId, block.getX(), block.getY(), block.getZ());
+        boolean added = session.markActive(BlockPositions.pack(block.getX(), block.getY(), block.getZ()));
         if (!added && !session.isMasked(key)) {
             return;
         }
@@ -173,25 +166,9 @@ final class InteriorRevealProcessor {
         if (!BlockMaterialUtil.isInteriorTraversable(block.getType())) {
             return;
         }
-        long packed = packBlockPosition(x, y, z);
+        long packed = BlockPositions.pack(x, y, z);
         if (visited.add(packed)) {
             queue.addLast(packed);
         }
     }
-
-    private static long packBlockPosition(int x, int y, int z) {
-        return ((long) (x & 0x3FFFFFF) << 38) | ((long) (z & 0x3FFFFFF) << 12) | ((long) (y & 0xFFF));
-    }
-
-    private static int unpackBlockX(long packed) {
-        return (int) (packed >> 38);
-    }
-
-    private static int unpackBlockY(long packed) {
-        return (int) (packed << 52 >> 52);
-    }
-
-    private static int unpackBlockZ(long packed) {
-        return (int) (packed << 26 >> 38);
-    }
 }
@@ -7,9 +7,9 @@ import org.bukkit.block.data.BlockData;
 import org.bukkit.entity.Player;
 import org.topiacube.topiaAntiCaveFinder.config.PluginConfig;
 import org.topiacube.topiaAntiCaveFinder.mask.BlockKey;
-import org.topiacube.topiaAntiCaveFinder.mask.MaskPaletteResolver;
-
-import java.util.Set;
+import org.topiacube.topiaAntiCaveFinder.mask.CaveMaskManager;
+import org.topiacube.topiaAntiCaveFinder.mask.WorldRegistry;
+import org.topiacube.topiaAntiCaveFinder.util.BlockPositions;
 
 final class MaskPropagator {
     private static final BlockFace[] NEIGHBOR_FACES = {
@@ -26,11 +26,11 @@ final class MaskPropagator {
 
     static void propagate(Player player,
                           PlayerViewSession session,
-                          String worldName,
+                          CaveMaskManager maskManager,
+                          int worldId,
                           Block originBlock,
                           BlockData fallbackMask,
                           PluginConfig config,
-                          Set<BlockKey> activeKeys,
                           int tick) {
         if (originBlock == null) {
             return;
@@ -39,7 +39,7 @@ final class MaskPropagator {
         if (world == null) {
             return;
         }
-        String resolvedWorldName = worldName != null ? worldName : BlockKey.canonicalWorldName(world.getName());
+        int resolvedWorldId = worldId != WorldRegistry.NO_WORLD ? worldId : WorldRegistry.idOf(world);
 
         int baseX = originBlock.getX();
         int baseY = originBlock.getY();
@@ -56,16 +56,14 @@ final class MaskPropagator {
             if (!BlockMaterialUtil.isAirLike(neighbor.getType())) {
                 continue;
             }
-            BlockKey neighborKey = resolvedWorldName != null
-                ? BlockKey.ofInterned(resolvedWorldName, neighborX, neighborY, neighborZ)
-                : BlockKey.of(null, neighborX, neighborY, neighborZ);
+            BlockKey neighborKey = BlockKey.of(resolvedWorldId, neighborX, neighborY, neighborZ);
             if (session.isRevealed(neighborKey)) {
                 continue;
             }
-            if (!activeKeys.add(neighborKey)) {
+            if (!session.markActive(BlockPositions.pack(neighborX, neighborY, neighborZ))) {
                 continue;
             }
-            BlockData neighborMask = MaskPaletteResolver.resolveFromNeighbors(neighbor, config);
+            BlockData neighborMask = maskManager.resolveMask(neighborKey, neighbor, config);
             if (neighborMask == null) {
                 neighborMask = fallbackMask;
             }
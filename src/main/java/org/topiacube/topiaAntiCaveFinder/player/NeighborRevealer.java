@@ -7,8 +7,7 @@ import org.bukkit.entity.Player;
 import org.bukkit.util.Vector;
 import org.topiacube.topiaAntiCaveFinder.config.PluginConfig;
 import org.topiacube.topiaAntiCaveFinder.mask.BlockKey;
-
-import java.util.Set;
+import org.topiacube.topiaAntiCaveFinder.util.BlockPositions;
 
 final class NeighborRevealer {
 
@@ -23,9 +22,8 @@ final class NeighborRevealer {
     void revealLayers(Player player,
                       PlayerViewSession session,
                       World world,
-                      String worldName,
+                      int worldId,
                       BlockKey origin,
-                      Set<BlockKey> activeKeys,
                       Location eye,
                       Vector viewDirection,
                       double maxDistanceSquared,
@@ -76,8 +74,7 @@ final class NeighborRevealer {
                 boolean revealed = revealBlock(player,
                     session,
                     world,
-                    worldName,
-                    activeKeys,
+                    worldId,
                     targetBlock,
                     eyeLocation,
                     directionVector,
@@ -97,8 +94,7 @@ final class NeighborRevealer {
                     revealPerpendicularNeighbors(player,
                         session,
                         world,
-                        worldName,
-                        activeKeys,
+                        worldId,
                         baseX,
                         baseY,
                         baseZ,
@@ -123,8 +119,7 @@ final class NeighborRevealer {
     boolean revealBlock(Player player,
                         PlayerViewSession session,
                         World world,
-                        String worldName,
-                        Set<BlockKey> activeKeys,
+                        int worldId,
                         Block block,
                         Location eye,
                         Vector viewDirection,
@@ -154,11 +149,9 @@ final class NeighborRevealer {
             return false;
         }
 
-        BlockKey key = worldName != null
-            ? BlockKey.ofInterned(worldName, block.getX(), block.getY(), block.getZ())
-            : BlockKey.of(null, block.getX(), block.getY(), block.getZ());
+        BlockKey key = BlockKey.of(worldId, block.getX(), block.getY(), block.getZ());
 
-        boolean alreadyActive = !activeKeys.add(key);
+        boolean alreadyActive = !session.markActive(BlockPositions.pack(block.getX(), block.getY(), block.getZ()));
         if (alreadyActive && !session.isMasked(key)) {
             return true;
         }
@@ -171,8 +164,7 @@ final class NeighborRevealer {
     private void revealPerpendicularNeighbors(Player player,
                                               PlayerViewSession session,
                                               World world,
-                                              String worldName,
-                                              Set<BlockKey> activeKeys,
+                                              int worldId,
                                               int baseX,
                                               int baseY,
                                               int baseZ,
@@ -206,8 +198,7 @@ final class NeighborRevealer {
             revealBlock(player,
                 session,
                 world,
-                worldName,
-                activeKeys,
+                worldId,
                 block,
                 eye,
                 viewDirection,
@@ -235,8 +226,7 @@ final class NeighborRevealer {
             revealBlock(player,
                 session,
                 world,
-                worldName,
-                activeKeys,
+                worldId,
                 block,
                 eye,
                 viewDirection,
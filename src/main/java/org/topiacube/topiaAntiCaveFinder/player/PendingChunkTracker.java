@@ -1,8 +1,8 @@
 package org.topiacube.topiaAntiCaveFinder.player;
 
 import org.topiacube.topiaAntiCaveFinder.config.PluginConfig;
-import org.topiacube.topiaAntiCaveFinder.mask.BlockKey;
 import org.topiacube.topiaAntiCaveFinder.mask.ChunkKey;
+import org.topiacube.topiaAntiCaveFinder.mask.WorldRegistry;
 
 import java.util.Collections;
 import java.util.HashMap;
@@ -21,19 +21,20 @@ final class PendingChunkTracker {
         this.config = config;
     }
 
-    void register(UUID playerId, String worldName, int chunkX, int chunkZ) {
+    void register(UUID playerId, int worldId, int chunkX, int chunkZ) {
+        String worldName = WorldRegistry.nameOf(worldId);
         if (playerId == null || worldName == null || config.isWorldExcluded(worldName)) {
             return;
         }
-        ChunkKey chunkKey = key(worldName, chunkX, chunkZ);
+        ChunkKey chunkKey = ChunkKey.of(worldId, chunkX, chunkZ);
         pendingChunks.computeIfAbsent(chunkKey, unused -> new HashSet<>()).add(playerId);
     }
 
-    void unregister(UUID playerId, String worldName, int chunkX, int chunkZ) {
-        if (playerId == null || worldName == null) {
+    void unregister(UUID playerId, int worldId, int chunkX, int chunkZ) {
+        if (playerId == null || worldId == WorldRegistry.NO_WORLD || pendingChunks.isEmpty()) {
             return;
         }
-        ChunkKey chunkKey = key(worldName, chunkX, chunkZ);
+        ChunkKey chunkKey = ChunkKey.of(worldId, chunkX, chunkZ);
         Set<UUID> waiters = pendingChunks.get(chunkKey);
         if (waiters == null) {
             return;
@@ -45,8 +46,7 @@ final class PendingChunkTracker {
     }
 
     Set<UUID> drain(String worldName, int chunkX, int chunkZ) {
-        ChunkKey chunkKey = key(worldName, chunkX, chunkZ);
-        Set<UUID> waiters = pendingChunks.remove(chunkKey);
+        Set<UUID> waiters = pendingChunks.remove(new ChunkKey(worldName, chunkX, chunkZ));
         if (waiters == null || waiters.isEmpty()) {
             return Collections.emptySet();
         }
@@ -71,9 +71,4 @@ final class PendingChunkTracker {
     void clearAll() {
         pendingChunks.clear();
     }
-
-    private ChunkKey key(String worldName, int chunkX, int chunkZ) {
-        String canonicalWorld = BlockKey.canonicalWorldName(worldName);
-        return new ChunkKey(canonicalWorld, chunkX, chunkZ);
-    }
 }
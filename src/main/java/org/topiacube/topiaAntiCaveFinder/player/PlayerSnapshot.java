@@ -6,6 +6,7 @@ import org.bukkit.entity.Player;
 import org.bukkit.util.Vector;
 import org.topiacube.topiaAntiCaveFinder.config.PluginConfig;
 import org.topiacube.topiaAntiCaveFinder.mask.BlockKey;
+import org.topiacube.topiaAntiCaveFinder.mask.WorldRegistry;
 
 import java.util.UUID;
 
@@ -13,6 +14,7 @@ public final class PlayerSnapshot {
 
     private final UUID playerId;
     private final String playerName;
+    private final int worldId;
     private final String worldName;
     private final int chunkX;
     private final int chunkZ;
@@ -25,7 +27,7 @@ public final class PlayerSnapshot {
 
     private PlayerSnapshot(UUID playerId,
                            String playerName,
-                           String worldName,
+                           int worldId,
                            int chunkX,
                            int chunkZ,
                            int chunkRadius,
@@ -36,7 +38,8 @@ public final class PlayerSnapshot {
                            int scheduledTick) {
         this.playerId = playerId;
         this.playerName = playerName;
-        this.worldName = worldName;
+        this.worldId = worldId;
+        this.worldName = WorldRegistry.nameOf(worldId);
         this.chunkX = chunkX;
         this.chunkZ = chunkZ;
         this.chunkRadius = chunkRadius;
@@ -60,7 +63,7 @@ public final class PlayerSnapshot {
         return new PlayerSnapshot(
             player.getUniqueId(),
             player.getName(),
-            BlockKey.canonicalWorldName(world != null ? world.getName() : null),
+            WorldRegistry.idOf(world),
             chunkX,
             chunkZ,
             config.getChunkRadius(),
@@ -80,6 +83,10 @@ public final class PlayerSnapshot {
         return playerName;
     }
 
+    public int worldId() {
+        return worldId;
+    }
+
     public String worldName() {
         return worldName;
     }
@@ -117,9 +124,13 @@ public final class PlayerSnapshot {
     }
 
     public double distanceSquared(BlockKey key) {
-        double dx = (key.getX() + 0.5) - eyeX;
-        double dy = (key.getY() + 0.5) - eyeY;
-        double dz = (key.getZ() + 0.5) - eyeZ;
+        return distanceSquared(key.getX(), key.getY(), key.getZ());
+    }
+
+    public double distanceSquared(int x, int y, int z) {
+        double dx = (x + 0.5) - eyeX;
+        double dy = (y + 0.5) - eyeY;
+        double dz = (z + 0.5) - eyeZ;
         return (dx * dx) + (dy * dy) + (dz * dz);
     }
 }
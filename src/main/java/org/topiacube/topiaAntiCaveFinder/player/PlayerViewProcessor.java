@@ -11,21 +11,22 @@ import org.bukkit.util.Vector;
 import org.topiacube.topiaAntiCaveFinder.config.PluginConfig;
 import org.topiacube.topiaAntiCaveFinder.mask.BlockKey;
 import org.topiacube.topiaAntiCaveFinder.mask.CaveMaskManager;
-import org.topiacube.topiaAntiCaveFinder.mask.MaskPaletteResolver;
 import org.topiacube.topiaAntiCaveFinder.mask.TrackedBlock;
+import org.topiacube.topiaAntiCaveFinder.mask.WorldRegistry;
+import org.topiacube.topiaAntiCaveFinder.util.BlockPositions;
 
 import java.util.List;
-import java.util.Objects;
-import java.util.Set;
 import java.util.function.BiPredicate;
 
 final class PlayerViewProcessor {
 
     interface PendingChunkTracker {
-        void registerPending(java.util.UUID playerId, String worldName, int chunkX, int chunkZ);
-        void unregisterPending(java.util.UUID playerId, String worldName, int chunkX, int chunkZ);
+        void registerPending(java.util.UUID playerId, int worldId, int chunkX, int chunkZ);
+        void unregisterPending(java.util.UUID playerId, int worldId, int chunkX, int chunkZ);
     }
 
+    private static final int MIN_EXTRA_ALLOWANCE = 4096;
+
     private final JavaPlugin plugin;
     private final PluginConfig config;
     private final CaveMaskManager maskManager;
@@ -48,20 +49,30 @@ final class PlayerViewProcessor {
         this.entityMaskController = new EntityMaskController(plugin, config);
     }
 
+    static int candidateBudget(PluginConfig config) {
+        // candidates the processor skips do not count towards its limits, so leave twice the room it can act on
+        int maxBlocks = config.getMaxBlocksPerPlayer();
+        return (int) Math.min(Integer.MAX_VALUE, 2L * ((long) maxBlocks + extraAllowance(maxBlocks)));
+    }
+
+    private static int extraAllowance(int maxBlocks) {
+        return Math.max(maxBlocks * 2, MIN_EXTRA_ALLOWANCE);
+    }
+
     void processResult(Player player,
                        PlayerViewSession session,
                        ViewComputationResult result,
                        int tick,
                        BiPredicate<BlockKey, Integer> interactionLookup,
                        PendingChunkTracker chunkTracker) {
-        List<TrackedBlock> trackedBlocks = result.trackedBlocks();
-        if (trackedBlocks.isEmpty()) {
+        int trackedCount = result.size();
+        if (trackedCount == 0) {
             return;
         }
 
         PlayerSnapshot snapshot = result.snapshot();
         World world = player.getWorld();
-        String worldName = BlockKey.canonicalWorldName(snapshot.worldName());
+        int worldId = snapshot.worldId();
         Vector viewDirection = snapshot.viewDirection();
         Location eye = new Location(world, snapshot.eyeX(), snapshot.eyeY(), snapshot.eyeZ());
         double eyeX = snapshot.eyeX();
@@ -78,41 +89,41 @@ final class PlayerViewProcessor {
             tick
         );
 
-        Set<BlockKey> activeKeys = session.borrowActiveKeyBuffer();
+        session.beginPass(worldId);
         int maxBlocks = config.getMaxBlocksPerPlayer();
         int processed = 0;
-        int extraAllowance = Math.max(maxBlocks * 2, 4096);
+        int extraAllowance = extraAllowance(maxBlocks);
         double maxRevealDistanceSquared = sqr(config.getMaxRevealDistance());
         double minRevealDistanceSquared = sqr(config.getMinRevealDistance());
         double priorityDistanceSquared = Math.min(maskActivationRadiusSquared, sqr((config.getMaxRevealDistance() * 1.5) + 4.0));
 
-        double[] distanceSquares = result.distanceSquares();
-        int trackedCount = result.size();
+        long[] positions = result.positions();
+        int[] paletteIds = result.paletteIds();
+        float[] distanceSquares = result.distanceSquares();
+        boolean[] lineOfSight = result.lineOfSight();
         for (int i = 0; i < trackedCount; i++) {
             if (processed >= maxBlocks && extraAllowance <= 0) {
                 break;
             }
-            TrackedBlock trackedBlock = trackedBlocks.get(i);
-            BlockKey key = trackedBlock.getKey();
-            if (!Objects.equals(key.getWorldName(), worldName)) {
-                continue;
-            }
-
             double distanceSquared = distanceSquares[i];
             if (distanceSquared > maskActivationRadiusSquared) {
                 continue;
             }
 
-            int chunkX = Math.floorDiv(key.getX(), 16);
-            int chunkZ = Math.floorDiv(key.getZ(), 16);
+            long position = positions[i];
+            int blockX = BlockPositions.unpackX(position);
+            int blockY = BlockPositions.unpackY(position);
+            int blockZ = BlockPositions.unpackZ(position);
+            int chunkX = blockX >> 4;
+            int chunkZ = blockZ >> 4;
             if (!world.isChunkLoaded(chunkX, chunkZ)) {
                 if (chunkTracker != null) {
-                    chunkTracker.registerPending(snapshot.playerId(), worldName, chunkX, chunkZ);
+                    chunkTracker.registerPending(snapshot.playerId(), worldId, chunkX, chunkZ);
                 }
                 continue;
             }
             if (chunkTracker != null) {
-                chunkTracker.unregisterPending(snapshot.playerId(), worldName, chunkX, chunkZ);
+                chunkTracker.unregisterPending(snapshot.playerId(), worldId, chunkX, chunkZ);
             }
 
             boolean priority = distanceSquared <= priorityDistanceSquared;
@@ -120,8 +131,11 @@ final class PlayerViewProcessor {
                 continue;
             }
 
-            Block worldBlock = world.getBlockAt(key.getX(), key.getY(), key.getZ());
-            if (worldBlock.getBlockData().matches(trackedBlock.getOriginalData())) {
+            // keys are only built for candidates that survive the cheap checks above
+            BlockKey key = BlockKey.of(worldId, blockX, blockY, blockZ);
+            BlockData originalData = maskManager.getPaletteData(paletteIds[i]);
+            Block worldBlock = world.getBlockAt(blockX, blockY, blockZ);
+            if (worldBlock.getBlockData().matches(originalData)) {
                 maskManager.untrackBlock(key);
                 continue;
             }
@@ -132,23 +146,20 @@ final class PlayerViewProcessor {
                 continue;
             }
 
-            activeKeys.add(key);
+            session.markActive(position);
             boolean handled = handleMaskCandidate(player,
                 session,
                 key,
                 world,
                 worldBlock,
-                trackedBlock,
+                originalData,
                 eye,
                 viewDirection,
-                eyeX,
-                eyeY,
-                eyeZ,
                 distanceSquared,
+                lineOfSight[i],
                 minRevealDistanceSquared,
                 maxRevealDistanceSquared,
-                worldName,
-                activeKeys,
+                worldId,
                 tick,
                 interactionLookup);
             if (handled) {
@@ -160,9 +171,8 @@ final class PlayerViewProcessor {
             }
         }
 
-        InteriorRevealProcessor.process(player, session, config, player.getLocation(), worldName, activeKeys, tick);
-        session.cleanup(player, activeKeys, candidateKey -> maskManager.get(candidateKey) != null, tick);
-        activeKeys.clear();
+        InteriorRevealProcessor.process(player, session, config, player.getLocation(), worldId, tick);
+        session.cleanup(player, worldId, maskManager::contains, tick);
         if (entityMaskingEnabled) {
             entityMaskController.update(player, session, eye, viewDirection);
         }
@@ -176,14 +186,14 @@ final class PlayerViewProcessor {
             return;
         }
         World world = player.getWorld();
-        String worldName = world != null ? world.getName() : null;
+        int worldId = WorldRegistry.idOf(world);
         for (TrackedBlock trackedBlock : trackedBlocks) {
             BlockKey key = trackedBlock.getKey();
-            if (worldName != null && !Objects.equals(worldName, key.getWorldName())) {
+            if (worldId != WorldRegistry.NO_WORLD && worldId != key.getWorldId()) {
                 continue;
             }
             Block worldBlock = world.getBlockAt(key.getX(), key.getY(), key.getZ());
-            BlockData maskData = MaskPaletteResolver.resolveFromNeighbors(worldBlock, config);
+            BlockData maskData = maskManager.resolveMask(key, worldBlock, config);
             if (maskData == null) {
                 maskData = trackedBlock.getOriginalData();
             }
@@ -196,17 +206,14 @@ final class PlayerViewProcessor {
                                          BlockKey key,
                                          World world,
                                          Block worldBlock,
-                                         TrackedBlock trackedBlock,
+                                         BlockData originalData,
                                          Location eye,
                                          Vector viewDirection,
-                                         double eyeX,
-                                         double eyeY,
-                                         double eyeZ,
                                          double distanceSquared,
+                                         boolean lineOfSight,
                                          double minRevealDistanceSquared,
                                          double maxRevealDistanceSquared,
-                                         String worldName,
-                                         Set<BlockKey> activeKeys,
+                                         int worldId,
                                          int tick,
                                          BiPredicate<BlockKey, Integer> interactionLookup) {
         if (interactionLookup != null && interactionLookup.test(key, tick)) {
@@ -220,19 +227,9 @@ final class PlayerViewProcessor {
             return true;
         }
 
-        boolean reveal = false;
-        if (distanceSquared <= minRevealDistanceSquared) {
-            reveal = true;
-        } else if (distanceSquared <= maxRevealDistanceSquared) {
-            double dx = (key.getX() + 0.5) - eyeX;
-            double dy = (key.getY() + 0.5) - eyeY;
-            double dz = (key.getZ() + 0.5) - eyeZ;
-            double distance = Math.sqrt(distanceSquared);
-            boolean withinFov = VisibilityUtil.isWithinFov(viewDirection, dx, dy, dz, distanceSquared, config.getRevealFovHalfAngleCos());
-            if (withinFov && VisibilityUtil.hasLineOfSight(player, key, eye, dx, dy, dz, distance)) {
-                reveal = true;
-            }
-        }
+        // the field of view and line of sight were already traced off the main thread
+        boolean reveal = distanceSquared <= minRevealDistanceSquared
+            || (distanceSquared <= maxRevealDistanceSquared && lineOfSight);
 
         if (reveal) {
             session.applyReveal(player, key, tick);
@@ -240,20 +237,19 @@ final class PlayerViewProcessor {
             neighborRevealer.revealLayers(player,
                 session,
                 world,
-                worldName,
+                worldId,
                 key,
-                activeKeys,
                 eye,
                 viewDirection,
                 maxRevealDistanceSquared,
                 tick);
         } else {
-            BlockData maskData = MaskPaletteResolver.resolveFromNeighbors(worldBlock, config);
+            BlockData maskData = maskManager.resolveMask(key, worldBlock, config);
             if (maskData == null) {
-                maskData = trackedBlock.getOriginalData();
+                maskData = originalData;
             }
             session.applyMask(player, key, maskData, tick);
-            MaskPropagator.propagate(player, session, worldName, worldBlock, maskData, config, activeKeys, tick);
+            MaskPropagator.propagate(player, session, maskManager, worldId, worldBlock, maskData, config, tick);
         }
         return true;
     }
@@ -2,6 +2,8 @@ package org.topiacube.topiaAntiCaveFinder.player;
 
 import org.bukkit.Bukkit;
 import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.entity.Player;
 import org.bukkit.scheduler.BukkitTask;
@@ -9,13 +11,13 @@ import org.topiacube.topiaAntiCaveFinder.config.PluginConfig;
 import org.topiacube.topiaAntiCaveFinder.mask.BlockKey;
 import org.topiacube.topiaAntiCaveFinder.mask.CaveMaskManager;
 import org.topiacube.topiaAntiCaveFinder.mask.TrackedBlock;
+import org.topiacube.topiaAntiCaveFinder.mask.WorldRegistry;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
 import java.util.logging.Level;
@@ -36,8 +38,10 @@ public final class PlayerViewService {
     private final PlayerViewProcessor.PendingChunkTracker chunkTracker;
     private final InteractionRevealTracker interactionTracker;
     private final PendingChunkTracker pendingChunks;
+    private final SectionOpacityCache opacityCache = new SectionOpacityCache();
 
     private BukkitTask task;
+    private BukkitTask flushTask;
     private int currentTick;
 
     public PlayerViewService(org.bukkit.plugin.java.JavaPlugin plugin,
@@ -48,18 +52,18 @@ public final class PlayerViewService {
         this.maskManager = maskManager;
         this.config = config;
         this.entityMaskingEnabled = entityMaskingEnabled;
-        this.computationCoordinator = new ViewComputationCoordinator(plugin, maskManager, config);
+        this.computationCoordinator = new ViewComputationCoordinator(plugin, maskManager, config, opacityCache);
         this.viewProcessor = new PlayerViewProcessor(plugin, config, maskManager, entityMaskingEnabled);
         this.pendingChunks = new PendingChunkTracker(config);
         this.chunkTracker = new PlayerViewProcessor.PendingChunkTracker() {
             @Override
-            public void registerPending(UUID playerId, String worldName, int chunkX, int chunkZ) {
-                pendingChunks.register(playerId, worldName, chunkX, chunkZ);
+            public void registerPending(UUID playerId, int worldId, int chunkX, int chunkZ) {
+                pendingChunks.register(playerId, worldId, chunkX, chunkZ);
             }
 
             @Override
-            public void unregisterPending(UUID playerId, String worldName, int chunkX, int chunkZ) {
-                pendingChunks.unregister(playerId, worldName, chunkX, chunkZ);
+            public void unregisterPending(UUID playerId, int worldId, int chunkX, int chunkZ) {
+                pendingChunks.unregister(playerId, worldId, chunkX, chunkZ);
             }
         };
         this.interactionTracker = new InteractionRevealTracker(sessions);
@@ -69,9 +73,14 @@ public final class PlayerViewService {
         if (task != null) {
             task.cancel();
         }
+        if (flushTask != null) {
+            flushTask.cancel();
+        }
         computationCoordinator.start();
         long interval = Math.max(1L, config.getCheckIntervalTicks());
         task = Bukkit.getScheduler().runTaskTimer(plugin, this::tick, interval, interval);
+        // scheduled after the service task, so on ticks where both run the changes it queued leave the same tick
+        flushTask = Bukkit.getScheduler().runTaskTimer(plugin, this::serverTick, 1L, 1L);
     }
 
     public void shutdown() {
@@ -79,6 +88,10 @@ public final class PlayerViewService {
             task.cancel();
             task = null;
         }
+        if (flushTask != null) {
+            flushTask.cancel();
+            flushTask = null;
+        }
         for (Player online : Bukkit.getOnlinePlayers()) {
             PlayerViewSession session = sessions.remove(online.getUniqueId());
             if (session != null) {
@@ -88,6 +101,7 @@ public final class PlayerViewService {
         interactionTracker.clear();
         pendingChunks.clearAll();
         computationCoordinator.shutdown();
+        opacityCache.clear();
     }
 
     public void initializePlayer(Player player) {
@@ -154,6 +168,29 @@ public final class PlayerViewService {
         interactionTracker.remove(key);
     }
 
+    public void invalidateSight(Block block) {
+        // only this block's bit changes, the rest of the chunk's snapshot stays usable
+        if (block == null) {
+            return;
+        }
+        World world = block.getWorld();
+        opacityCache.markChanged(world, WorldRegistry.idOf(world), block.getX(), block.getY(), block.getZ());
+    }
+
+    public void handleChunkUnload(Chunk chunk) {
+        if (chunk == null) {
+            return;
+        }
+        opacityCache.invalidate(WorldRegistry.idOf(chunk.getWorld()), chunk.getX(), chunk.getZ());
+    }
+
+    public void handleWorldUnload(World world) {
+        if (world == null) {
+            return;
+        }
+        opacityCache.invalidateWorld(WorldRegistry.idOf(world));
+    }
+
     public boolean isEntityMaskingEnabled() {
         return entityMaskingEnabled;
     }
@@ -162,6 +199,17 @@ public final class PlayerViewService {
         if (chunk == null) {
             return;
         }
+        if (!Bukkit.isPrimaryThread()) {
+            // called from the loader thread once the chunk's tracked blocks are resident
+            if (plugin.isEnabled()) {
+                Bukkit.getScheduler().runTask(plugin, () -> {
+                    if (chunk.isLoaded()) {
+                        handleChunkLoad(chunk);
+                    }
+                });
+            }
+            return;
+        }
         String worldName = chunk.getWorld().getName();
         if (config.isWorldExcluded(worldName)) {
             return;
@@ -192,7 +240,7 @@ public final class PlayerViewService {
             if (player == null || !player.isOnline()) {
                 continue;
             }
-            if (!Objects.equals(player.getWorld().getName(), worldName)) {
+            if (player.getWorld() != chunk.getWorld()) {
                 continue;
             }
             session.markDirty();
@@ -203,6 +251,7 @@ public final class PlayerViewService {
     private void tick() {
         currentTick++;
         interactionTracker.cleanupExpired(currentTick);
+        opacityCache.expire(currentTick);
         drainCompletedResults();
         for (Player player : Bukkit.getOnlinePlayers()) {
             if (!player.isOnline()) {
@@ -212,12 +261,38 @@ public final class PlayerViewService {
                 continue;
             }
             PlayerViewSession session = sessions.computeIfAbsent(player.getUniqueId(), PlayerViewSession::new);
-            if (!session.isComputationScheduled() && session.shouldSchedule(player, currentTick)) {
+            if (!session.isComputationScheduled() && session.shouldSchedule(player, currentTick)
+                && hasTrackedBlocksInReach(player)) {
                 scheduleComputation(player, session);
             }
         }
     }
 
+    private void serverTick() {
+        // every server tick, unlike tick(), which only runs once per check interval
+        maskManager.publishSnapshots();
+        flushBlockChanges();
+    }
+
+    private void flushBlockChanges() {
+        int budget = config.getMaxBlockChangesPerTick();
+        double fovCos = config.getRevealFovHalfAngleCos();
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            PlayerViewSession session = sessions.get(player.getUniqueId());
+            if (session != null) {
+                session.flushBlockChanges(player, budget, fovCos);
+            }
+        }
+    }
+
+    private boolean hasTrackedBlocksInReach(Player player) {
+        // players with no tracked chunk within the activation radius would only get an empty result back
+        Location location = player.getLocation();
+        int reach = Math.min(config.getChunkRadius(), (int) (config.getMaskActivationRadius() / 16.0) + 1);
+        return maskManager.hasTrackedChunksNear(WorldRegistry.idOf(player.getWorld()),
+            location.getBlockX() >> 4, location.getBlockZ() >> 4, reach);
+    }
+
     private void scheduleComputation(Player player, PlayerViewSession session) {
         computationCoordinator.schedule(player, session, currentTick);
     }
@@ -250,7 +325,7 @@ public final class PlayerViewService {
                 session.recycleComputationBuffers();
                 continue;
             }
-            if (!Objects.equals(player.getWorld().getName(), result.snapshot().worldName())) {
+            if (WorldRegistry.idOf(player.getWorld()) != result.snapshot().worldId()) {
                 session.recycleComputationBuffers();
                 continue;
             }
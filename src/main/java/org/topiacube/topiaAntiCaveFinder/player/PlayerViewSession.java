@@ -5,45 +5,60 @@ import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.World;
 import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
 import org.bukkit.block.data.BlockData;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.Player;
 import org.bukkit.plugin.Plugin;
 import org.bukkit.util.Vector;
 import org.topiacube.topiaAntiCaveFinder.mask.BlockKey;
-import org.topiacube.topiaAntiCaveFinder.mask.TrackedBlock;
+import org.topiacube.topiaAntiCaveFinder.mask.TrackedBlockBuffer;
+import org.topiacube.topiaAntiCaveFinder.mask.WorldRegistry;
+import org.topiacube.topiaAntiCaveFinder.util.BlockPositions;
 import org.topiacube.topiaAntiCaveFinder.util.LongArrayQueue;
 import org.topiacube.topiaAntiCaveFinder.util.LongHashSet;
 
-import java.lang.reflect.Method;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
-import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 final class PlayerViewSession {
 
     private final UUID playerId;
-    private final Map<BlockKey, BlockDisplayState> blockStates = new HashMap<>();
+    // display state indexed by world id; a session rarely holds more than the player's current world
+    private BlockStateTable[] stateTables = new BlockStateTable[0];
     private final Set<UUID> hiddenEntities = new HashSet<>();
 
-    private final ArrayList<TrackedBlock> trackedBlocksBuffer = new ArrayList<>();
-    private double[] distanceBuffer = new double[0];
+    private final TrackedBlockBuffer candidateBuffer = new TrackedBlockBuffer();
+    private final TrackedBlockBuffer resultBuffer = new TrackedBlockBuffer();
+    private float[] distanceBuffer = new float[0];
+    private long[] sortKeyBuffer = new long[0];
+    private boolean[] sightBuffer = new boolean[0];
     private boolean computationBufferInUse;
 
-    private final Set<BlockKey> activeKeyBuffer = new HashSet<>();
-    private final Set<BlockKey> cleanupBuffer = new HashSet<>();
+    private final LongHashSet activeKeyBuffer = new LongHashSet();
+    private final LongArrayQueue cleanupBuffer = new LongArrayQueue();
     private final LongArrayQueue interiorQueue = new LongArrayQueue();
     private final LongHashSet interiorVisited = new LongHashSet();
     private final Set<UUID> validEntityBuffer = new HashSet<>();
-    private final Map<BlockKey, Integer> passiveRevealExpiry = new HashMap<>();
+    // block changes wait here until the service tick hands them out within the per-player budget
+    private final BlockChangeQueue outboundChanges = new BlockChangeQueue();
+    private final List<BlockState> sendBuffer = new ArrayList<>();
+    private Player flushPlayer;
+    private World flushWorld;
+    private int flushWorldId;
+    private final BlockChangeQueue.ChangeConsumer flushConsumer = this::emitBlockChange;
 
     private final AtomicBoolean computationScheduled = new AtomicBoolean(false);
 
@@ -57,10 +72,11 @@ final class PlayerViewSession {
     private int lastChunkZ = Integer.MIN_VALUE;
     private int lastViewUpdateTick = Integer.MIN_VALUE;
     private boolean hasLastViewState;
+    private int passWorldId = WorldRegistry.NO_WORLD;
+    private int passGeneration;
     private boolean forceNextComputation;
 
     private static volatile boolean supportsPluginEntityVisibility = detectPluginEntityVisibilitySupport();
-    private static final BlockChangeTransmitter BLOCK_CHANGE_TRANSMITTER = BlockChangeTransmitter.detect();
     private static final int RESEND_INTERVAL_TICKS = 5;
     private static final double MIN_MOVEMENT_DELTA_SQUARED = 0.16;
     private static final double MIN_ROTATION_DOT_THRESHOLD = Math.cos(Math.toRadians(3.0));
@@ -76,123 +92,149 @@ final class PlayerViewSession {
     }
 
     void applyMask(Player player, BlockKey key, BlockData maskData, int tick) {
-        BlockDisplayState current = blockStates.get(key);
-        if (current != null && current.displayState == DisplayState.MASKED && !needsRefresh(current, tick)) {
+        BlockStateTable states = statesFor(key.getWorldId(), true);
+        if (states == null) {
             return;
         }
-        passiveRevealExpiry.remove(key);
-        if (maskData == null) {
-            blockStates.remove(key);
-            return;
-        }
-        Location location = null;
-        World world = player.getWorld();
-        if (world != null && Objects.equals(world.getName(), key.getWorldName())) {
-            if (world.isChunkLoaded(Math.floorDiv(key.getX(), 16), Math.floorDiv(key.getZ(), 16))) {
-                location = new Location(world, key.getX(), key.getY(), key.getZ());
-            }
-        } else if (key.getWorldName() != null) {
-            World keyWorld = Bukkit.getWorld(key.getWorldName());
-            if (keyWorld != null && keyWorld.isChunkLoaded(Math.floorDiv(key.getX(), 16), Math.floorDiv(key.getZ(), 16))) {
-                location = new Location(keyWorld, key.getX(), key.getY(), key.getZ());
-            }
-        }
-        if (location == null) {
-            blockStates.remove(key);
+        long position = positionOf(key);
+        int slot = states.find(position);
+        if (slot >= 0) {
+            if ((states.flagsAt(slot) & BlockStateTable.DISPLAY_MASK) == BlockStateTable.MASKED
+                && !needsRefresh(states.sentTickAt(slot), tick)) {
+                return;
+            }
+            states.clearPassive(slot);
+        }
+        if (maskData == null) {
+            forget(states, position);
+            return;
+        }
+        World world = loadedWorld(player, key.getWorldId(), key.getX(), key.getZ());
+        if (world == null) {
+            forget(states, position);
             return;
         }
-        if (BLOCK_CHANGE_TRANSMITTER.send(player, location, maskData)) {
-            blockStates.put(key, BlockDisplayState.masked(tick));
+        if (queueBlockChange(key.getWorldId(), position, maskData)) {
+            states.setDisplay(states.insert(position), BlockStateTable.MASKED, tick);
         }
     }
 
     void applyReveal(Player player, BlockKey key, int tick) {
-        BlockDisplayState current = blockStates.get(key);
-        if (current != null && current.displayState == DisplayState.REVEALED && !needsRefresh(current, tick)) {
+        BlockStateTable states = statesFor(key.getWorldId(), true);
+        if (states == null) {
             return;
         }
-        passiveRevealExpiry.remove(key);
-        World world = player.getWorld();
-        Block block = null;
-        if (world != null && Objects.equals(world.getName(), key.getWorldName())) {
-            if (world.isChunkLoaded(Math.floorDiv(key.getX(), 16), Math.floorDiv(key.getZ(), 16))) {
-                block = world.getBlockAt(key.getX(), key.getY(), key.getZ());
-            }
-        }
-        if (block == null && key.getWorldName() != null) {
-            World keyWorld = Bukkit.getWorld(key.getWorldName());
-            if (keyWorld != null && keyWorld.isChunkLoaded(Math.floorDiv(key.getX(), 16), Math.floorDiv(key.getZ(), 16))) {
-                block = keyWorld.getBlockAt(key.getX(), key.getY(), key.getZ());
-            }
-        }
-        if (block == null) {
-            blockStates.remove(key);
-            return;
-        }
-        if (BLOCK_CHANGE_TRANSMITTER.send(player, block.getLocation(), block.getBlockData())) {
-            blockStates.put(key, BlockDisplayState.revealed(tick));
+        long position = positionOf(key);
+        int slot = states.find(position);
+        if (slot >= 0) {
+            if ((states.flagsAt(slot) & BlockStateTable.DISPLAY_MASK) == BlockStateTable.REVEALED
+                && !needsRefresh(states.sentTickAt(slot), tick)) {
+                return;
+            }
+            states.clearPassive(slot);
+        }
+        World world = loadedWorld(player, key.getWorldId(), key.getX(), key.getZ());
+        if (world == null) {
+            forget(states, position);
+            return;
+        }
+        if (queueBlockChange(key.getWorldId(), position, null)) {
+            states.setDisplay(states.insert(position), BlockStateTable.REVEALED, tick);
         } else {
-            blockStates.remove(key);
+            forget(states, position);
         }
     }
 
     boolean isRevealed(BlockKey key) {
-        BlockDisplayState state = blockStates.get(key);
-        return state != null && state.displayState == DisplayState.REVEALED;
+        return displayOf(key) == BlockStateTable.REVEALED;
     }
 
     boolean isMasked(BlockKey key) {
-        BlockDisplayState state = blockStates.get(key);
-        return state != null && state.displayState == DisplayState.MASKED;
+        return displayOf(key) == BlockStateTable.MASKED;
+    }
+
+    void beginPass(int worldId) {
+        activeKeyBuffer.clear();
+        passWorldId = worldId;
+        passGeneration++;
     }
 
-    void cleanup(Player player, Set<BlockKey> validKeys, Predicate<BlockKey> keepMaskedPredicate, int tick) {
-        removeExpiredPassiveReveals(tick);
-        Set<BlockKey> stale = borrowCleanupBuffer();
-        for (Map.Entry<BlockKey, BlockDisplayState> entry : blockStates.entrySet()) {
-            BlockKey key = entry.getKey();
-            BlockDisplayState state = entry.getValue();
-            if (validKeys.contains(key) || isPassiveRevealActive(key, tick)) {
+    boolean markActive(long position) {
+        // returns false when the position was already active this pass
+        if (!activeKeyBuffer.add(position)) {
+            return false;
+        }
+        BlockStateTable states = statesFor(passWorldId, false);
+        if (states != null) {
+            int slot = states.find(position);
+            if (slot >= 0) {
+                states.touch(slot, passGeneration);
+            }
+        }
+        return true;
+    }
+
+    void cleanup(Player player, int worldId, TrackedLookup keepMasked, int tick) {
+        discardOtherWorlds(worldId);
+        BlockStateTable states = statesFor(worldId, false);
+        if (states == null) {
+            activeKeyBuffer.clear();
+            return;
+        }
+        states.removeExpiredPassive(tick);
+        LongArrayQueue stale = borrowCleanupBuffer();
+        // entries touched this pass sit in front, only the rest can have gone stale
+        for (int index = states.untouchedStart(passGeneration); index < states.size(); index++) {
+            long position = states.entryAt(index);
+            int slot = states.find(position);
+            int flags = states.flagsAt(slot);
+            int display = flags & BlockStateTable.DISPLAY_MASK;
+            // entries created after their position was marked are active without a stamp
+            if (display == 0 || activeKeyBuffer.contains(position)) {
                 continue;
             }
-            if (state.displayState == DisplayState.MASKED && keepMaskedPredicate != null && keepMaskedPredicate.test(key)) {
+            if ((flags & BlockStateTable.PASSIVE) != 0 && states.passiveExpiryAt(slot) >= tick) {
                 continue;
             }
-            stale.add(key);
+            if (display == BlockStateTable.MASKED && keepMasked != null
+                && keepMasked.isTracked(worldId,
+                    BlockPositions.unpackX(position), BlockPositions.unpackY(position), BlockPositions.unpackZ(position))) {
+                continue;
+            }
+            stale.addLast(position);
+        }
+        activeKeyBuffer.clear();
+        while (!stale.isEmpty()) {
+            revert(player, worldId, states, stale.pollFirst());
         }
-        stale.forEach(key -> revert(player, key));
-        stale.clear();
     }
 
     void revert(Player player, BlockKey key) {
-        BlockDisplayState state = blockStates.remove(key);
-        if (state == null) {
-            return;
-        }
-        passiveRevealExpiry.remove(key);
-        World world = player.getWorld();
-        Block block = null;
-        if (world != null && Objects.equals(world.getName(), key.getWorldName())) {
-            if (world.isChunkLoaded(Math.floorDiv(key.getX(), 16), Math.floorDiv(key.getZ(), 16))) {
-                block = world.getBlockAt(key.getX(), key.getY(), key.getZ());
-            }
-        } else if (key.getWorldName() != null) {
-            World keyWorld = Bukkit.getWorld(key.getWorldName());
-            if (keyWorld != null && keyWorld.isChunkLoaded(Math.floorDiv(key.getX(), 16), Math.floorDiv(key.getZ(), 16))) {
-                block = keyWorld.getBlockAt(key.getX(), key.getY(), key.getZ());
-            }
-        }
-        if (block != null) {
-            BLOCK_CHANGE_TRANSMITTER.send(player, block.getLocation(), block.getBlockData());
+        BlockStateTable states = statesFor(key.getWorldId(), false);
+        if (states != null) {
+            revert(player, key.getWorldId(), states, positionOf(key));
         }
     }
 
     void clear(Plugin plugin, Player player) {
-        for (BlockKey key : new HashSet<>(blockStates.keySet())) {
-            revert(player, key);
+        LongArrayQueue pending = borrowCleanupBuffer();
+        for (int worldId = 0; worldId < stateTables.length; worldId++) {
+            BlockStateTable states = stateTables[worldId];
+            if (states == null) {
+                continue;
+            }
+            for (int slot = 0; slot < states.capacity(); slot++) {
+                if (states.isOccupied(slot) && (states.flagsAt(slot) & BlockStateTable.DISPLAY_MASK) != 0) {
+                    pending.addLast(states.keyAt(slot));
+                }
+            }
+            while (!pending.isEmpty()) {
+                revert(player, worldId, states, pending.pollFirst());
+            }
         }
-        blockStates.clear();
-        passiveRevealExpiry.clear();
+        stateTables = new BlockStateTable[0];
+        // reverts are not held back by the budget, the session is going away
+        flushBlockChanges(player, 0, 0.0);
         for (UUID uuid : new HashSet<>(hiddenEntities)) {
             Entity entity = Bukkit.getEntity(uuid);
             if (entity != null) {
@@ -207,27 +249,121 @@ final class PlayerViewSession {
         lastViewUpdateTick = Integer.MIN_VALUE;
     }
 
-    private enum DisplayState {
-        MASKED,
-        REVEALED
+    private void revert(Player player, int worldId, BlockStateTable states, long position) {
+        int slot = states.find(position);
+        if (slot < 0 || (states.flagsAt(slot) & BlockStateTable.DISPLAY_MASK) == 0) {
+            return;
+        }
+        states.removeAt(slot);
+        int x = BlockPositions.unpackX(position);
+        int z = BlockPositions.unpackZ(position);
+        if (loadedWorld(player, worldId, x, z) != null) {
+            queueBlockChange(worldId, position, null);
+        }
     }
 
-    private static final class BlockDisplayState {
-        private final DisplayState displayState;
-        private final int lastSentTick;
+    void flushBlockChanges(Player player, int budget, double fovCos) {
+        if (outboundChanges.isEmpty()) {
+            return;
+        }
+        Location eye = player.getEyeLocation();
+        Vector direction = eye.getDirection();
+        flushPlayer = player;
+        flushWorld = player.getWorld();
+        flushWorldId = WorldRegistry.idOf(flushWorld);
+        try {
+            outboundChanges.drainInto(flushConsumer, budget,
+                eye.getX(), eye.getY(), eye.getZ(), direction.getX(), direction.getY(), direction.getZ(), fovCos);
+            BlockChangeTransmitter.sendBulk(player, sendBuffer);
+        } finally {
+            sendBuffer.clear();
+            flushPlayer = null;
+            flushWorld = null;
+        }
+    }
 
-        private BlockDisplayState(DisplayState displayState, int lastSentTick) {
-            this.displayState = displayState;
-            this.lastSentTick = lastSentTick;
+    private void emitBlockChange(int worldId, long position, BlockData mask) {
+        // changes queued before a world switch would land at the same coordinates in the new world
+        int x = BlockPositions.unpackX(position);
+        int z = BlockPositions.unpackZ(position);
+        if (worldId != flushWorldId || !flushWorld.isChunkLoaded(x >> 4, z >> 4)) {
+            return;
         }
+        // the block is read now rather than when the change was queued, so a reveal never resends stale data
+        Block block = flushWorld.getBlockAt(x, BlockPositions.unpackY(position), z);
+        BlockData data = mask != null ? mask : block.getBlockData();
+        if (BlockChangeTransmitter.supportsBulk()) {
+            sendBuffer.add(BlockChangeTransmitter.stateOf(block, data));
+        } else {
+            BlockChangeTransmitter.send(flushPlayer, block.getLocation(), data);
+        }
+    }
 
-        private static BlockDisplayState masked(int tick) {
-            return new BlockDisplayState(DisplayState.MASKED, tick);
+    private boolean queueBlockChange(int worldId, long position, BlockData mask) {
+        if (!BlockChangeTransmitter.isAvailable()) {
+            return false;
         }
+        outboundChanges.add(worldId, position, mask);
+        return true;
+    }
 
-        private static BlockDisplayState revealed(int tick) {
-            return new BlockDisplayState(DisplayState.REVEALED, tick);
+    private int displayOf(BlockKey key) {
+        BlockStateTable states = statesFor(key.getWorldId(), false);
+        if (states == null) {
+            return 0;
+        }
+        int slot = states.find(positionOf(key));
+        return slot >= 0 ? states.flagsAt(slot) & BlockStateTable.DISPLAY_MASK : 0;
+    }
+
+    private static void forget(BlockStateTable states, long position) {
+        int slot = states.find(position);
+        if (slot >= 0) {
+            states.removeAt(slot);
+        }
+    }
+
+    private BlockStateTable statesFor(int worldId, boolean create) {
+        if (worldId < 0) {
+            return null;
+        }
+        if (worldId >= stateTables.length) {
+            if (!create) {
+                return null;
+            }
+            stateTables = Arrays.copyOf(stateTables, worldId + 1);
+        }
+        BlockStateTable states = stateTables[worldId];
+        if (states == null && create) {
+            states = new BlockStateTable();
+            stateTables[worldId] = states;
+        }
+        return states;
+    }
+
+    private void discardOtherWorlds(int worldId) {
+        // the client drops every chunk on a world change, so states left in other worlds have nothing to revert
+        for (int other = 0; other < stateTables.length; other++) {
+            if (other != worldId) {
+                stateTables[other] = null;
+            }
+        }
+    }
+
+    private static World loadedWorld(Player player, int worldId, int x, int z) {
+        String worldName = WorldRegistry.nameOf(worldId);
+        World world = player.getWorld();
+        if (world == null || !Objects.equals(world.getName(), worldName)) {
+            world = worldName != null ? Bukkit.getWorld(worldName) : null;
+        }
+        if (world == null || !world.isChunkLoaded(Math.floorDiv(x, 16), Math.floorDiv(z, 16))) {
+            return null;
         }
+        return world;
+    }
+
+    private static long positionOf(BlockKey key) {
+        return BlockPositions.pack(key.getX(), key.getY(), key.getZ());
     }
 
     void hideEntity(Plugin plugin, Player player, Entity entity) {
@@ -268,40 +404,72 @@ final class PlayerViewSession {
         }
     }
 
-    ArrayList<TrackedBlock> borrowTrackedBlocksBuffer() {
+    TrackedBlockBuffer borrowCandidateBuffer() {
         synchronized (this) {
             if (computationBufferInUse) {
                 throw new IllegalStateException("Computation buffer already in use");
             }
             computationBufferInUse = true;
-            trackedBlocksBuffer.clear();
-            return trackedBlocksBuffer;
+            candidateBuffer.clear();
+            resultBuffer.clear();
+            return candidateBuffer;
         }
     }
 
-    double[] borrowDistanceBuffer(int size) {
+    TrackedBlockBuffer borrowResultBuffer() {
         synchronized (this) {
             if (!computationBufferInUse) {
-                throw new IllegalStateException("Distance buffer requested before tracked blocks buffer");
+                throw new IllegalStateException("Result buffer requested before candidate buffer");
+            }
+            return resultBuffer;
+        }
+    }
+
+    float[] borrowDistanceBuffer(int size) {
+        synchronized (this) {
+            if (!computationBufferInUse) {
+                throw new IllegalStateException("Distance buffer requested before candidate buffer");
             }
             if (distanceBuffer.length < size) {
                 int newCapacity = Math.max(size, distanceBuffer.length * 2 + 16);
-                distanceBuffer = new double[newCapacity];
+                distanceBuffer = new float[newCapacity];
             }
             return distanceBuffer;
         }
     }
 
-    void recycleComputationBuffers() {
+    boolean[] borrowSightBuffer(int size) {
         synchronized (this) {
-            trackedBlocksBuffer.clear();
-            computationBufferInUse = false;
+            if (!computationBufferInUse) {
+                throw new IllegalStateException("Sight buffer requested before candidate buffer");
+            }
+            if (sightBuffer.length < size) {
+                int newCapacity = Math.max(size, sightBuffer.length * 2 + 16);
+                sightBuffer = new boolean[newCapacity];
+            }
+            return sightBuffer;
         }
     }
 
-    Set<BlockKey> borrowActiveKeyBuffer() {
-        activeKeyBuffer.clear();
-        return activeKeyBuffer;
+    long[] borrowSortKeyBuffer(int size) {
+        synchronized (this) {
+            if (!computationBufferInUse) {
+                throw new IllegalStateException("Sort key buffer requested before candidate buffer");
+            }
+            if (sortKeyBuffer.length < size) {
+                int newCapacity = Math.max(size, sortKeyBuffer.length * 2 + 16);
+                sortKeyBuffer = new long[newCapacity];
+            }
+            return sortKeyBuffer;
+        }
+    }
+
+    void recycleComputationBuffers() {
+        synchronized (this) {
+            candidateBuffer.clear();
+            resultBuffer.clear();
+            computationBufferInUse = false;
+        }
     }
 
     LongArrayQueue borrowInteriorQueue() {
@@ -319,7 +487,7 @@ final class PlayerViewSession {
         return validEntityBuffer;
     }
 
-    Set<BlockKey> borrowCleanupBuffer() {
+    LongArrayQueue borrowCleanupBuffer() {
         cleanupBuffer.clear();
         return cleanupBuffer;
     }
@@ -402,32 +570,11 @@ final class PlayerViewSession {
         if (key == null) {
             return;
         }
-        passiveRevealExpiry.put(key, tick + PASSIVE_REVEAL_DURATION_TICKS);
-    }
-
-    private boolean isPassiveRevealActive(BlockKey key, int tick) {
-        Integer expiry = passiveRevealExpiry.get(key);
-        if (expiry == null) {
-            return false;
-        }
-        if (expiry >= tick) {
-            return true;
-        }
-        passiveRevealExpiry.remove(key);
-        return false;
-    }
-
-    private void removeExpiredPassiveReveals(int tick) {
-        if (passiveRevealExpiry.isEmpty()) {
+        BlockStateTable states = statesFor(key.getWorldId(), true);
+        if (states == null) {
             return;
         }
-        Iterator<Map.Entry<BlockKey, Integer>> iterator = passiveRevealExpiry.entrySet().iterator();
-        while (iterator.hasNext()) {
-            Map.Entry<BlockKey, Integer> entry = iterator.next();
-            if (entry.getValue() < tick) {
-                iterator.remove();
-            }
-        }
+        states.setPassive(states.insert(positionOf(key)), tick + PASSIVE_REVEAL_DURATION_TICKS);
     }
 
     private boolean hasPluginHideSupport() {
@@ -444,8 +591,8 @@ final class PlayerViewSession {
         }
     }
 
-    private boolean needsRefresh(BlockDisplayState state, int currentTick) {
-        int delta = currentTick - state.lastSentTick;
+    private boolean needsRefresh(int lastSentTick, int currentTick) {
+        int delta = currentTick - lastSentTick;
         return delta >= RESEND_INTERVAL_TICKS || delta < 0;
     }
 
@@ -484,52 +631,125 @@ final class PlayerViewSession {
         }
     }
 
+    @FunctionalInterface
+    interface TrackedLookup {
+        boolean isTracked(int worldId, int x, int y, int z);
+    }
+
     private static final class BlockChangeTransmitter {
-        private final Method blockDataMethod;
-        private final Method legacyMethod;
+        // the API the plugin compiles against is called directly; only signatures missing from it go through handles
+        private static final boolean DIRECT_BLOCK_DATA = hasMethod("sendBlockChange", Location.class, BlockData.class);
+        private static final boolean DIRECT_BULK = DIRECT_BLOCK_DATA && hasMethod("sendBlockChanges", Collection.class);
+        private static final MethodHandle LEGACY_HANDLE = DIRECT_BLOCK_DATA ? null
+            : findHandle("sendBlockChange", MethodType.methodType(void.class, Location.class, Material.class, byte.class));
+        private static final MethodHandle SUPPRESSING_BULK_HANDLE = !DIRECT_BLOCK_DATA || DIRECT_BULK ? null
+            : bindSuppressFlag(findHandle("sendBlockChanges", MethodType.methodType(void.class, Collection.class, boolean.class)));
+        // Paper's getState(false) skips copying the tile entity, which a block change never looks at
+        private static final MethodHandle UNSNAPSHOTTED_STATE_HANDLE = findUnsnapshottedState();
+
+        static {
+            if (!DIRECT_BLOCK_DATA && LEGACY_HANDLE == null) {
+                Bukkit.getLogger().log(Level.WARNING, "Could not find compatible sendBlockChange method; masking will be disabled.");
+            }
+        }
 
-        private BlockChangeTransmitter(Method blockDataMethod, Method legacyMethod) {
-            this.blockDataMethod = blockDataMethod;
-            this.legacyMethod = legacyMethod;
+        private BlockChangeTransmitter() {
         }
 
-        static BlockChangeTransmitter detect() {
-            Method blockData = null;
-            Method legacy = null;
-            try {
-                blockData = Player.class.getMethod("sendBlockChange", Location.class, BlockData.class);
-            } catch (NoSuchMethodException ignored) {
+        static boolean isAvailable() {
+            return DIRECT_BLOCK_DATA || LEGACY_HANDLE != null;
+        }
+
+        static boolean supportsBulk() {
+            return DIRECT_BULK || SUPPRESSING_BULK_HANDLE != null;
+        }
+
+        static BlockState stateOf(Block block, BlockData data) {
+            BlockState state = null;
+            if (UNSNAPSHOTTED_STATE_HANDLE != null) {
                 try {
-                    legacy = Player.class.getMethod("sendBlockChange", Location.class, Material.class, byte.class);
-                } catch (NoSuchMethodException legacyEx) {
-                    Bukkit.getLogger().log(Level.WARNING, "Could not find compatible sendBlockChange method; masking will be disabled.");
+                    state = (BlockState) UNSNAPSHOTTED_STATE_HANDLE.invokeExact(block);
+                } catch (Throwable ignored) {
+                    // fall back to the snapshotting call below
                 }
             }
-            return new BlockChangeTransmitter(blockData, legacy);
+            if (state == null) {
+                state = block.getState();
+            }
+            if (!state.getBlockData().equals(data)) {
+                state.setBlockData(data);
+            }
+            return state;
         }
 
-        boolean send(Player player, Location location, BlockData data) {
+        static void sendBulk(Player player, List<BlockState> states) {
+            if (player == null || states.isEmpty()) {
+                return;
+            }
+            try {
+                if (DIRECT_BULK) {
+                    player.sendBlockChanges(states);
+                } else if (SUPPRESSING_BULK_HANDLE != null) {
+                    SUPPRESSING_BULK_HANDLE.invokeExact(player, (Collection<?>) states);
+                }
+            } catch (Throwable ex) {
+                Bukkit.getLogger().log(Level.WARNING, "Failed to send block changes using bulk API.", ex);
+            }
+        }
+
+        static boolean send(Player player, Location location, BlockData data) {
             if (player == null || location == null || data == null) {
                 return false;
             }
-            if (blockDataMethod != null) {
+            if (DIRECT_BLOCK_DATA) {
                 try {
-                    blockDataMethod.invoke(player, location, data);
+                    player.sendBlockChange(location, data);
                     return true;
-                } catch (ReflectiveOperationException ex) {
+                } catch (RuntimeException ex) {
                     Bukkit.getLogger().log(Level.WARNING, "Failed to send block change using modern API.", ex);
                 }
                 return false;
             }
-            if (legacyMethod != null) {
+            if (LEGACY_HANDLE != null) {
                 try {
-                    legacyMethod.invoke(player, location, data.getMaterial(), (byte) 0);
+                    LEGACY_HANDLE.invokeExact(player, location, data.getMaterial(), (byte) 0);
                     return true;
-                } catch (ReflectiveOperationException ex) {
+                } catch (Throwable ex) {
                     Bukkit.getLogger().log(Level.WARNING, "Failed to send block change using legacy API.", ex);
                 }
             }
             return false;
         }
+
+        private static boolean hasMethod(String name, Class<?>... parameterTypes) {
+            try {
+                Player.class.getMethod(name, parameterTypes);
+                return true;
+            } catch (NoSuchMethodException ignored) {
+                return false;
+            }
+        }
+
+        private static MethodHandle findHandle(String name, MethodType type) {
+            try {
+                return MethodHandles.publicLookup().findVirtual(Player.class, name, type);
+            } catch (NoSuchMethodException | IllegalAccessException ignored) {
+                return null;
+            }
+        }
+
+        private static MethodHandle bindSuppressFlag(MethodHandle handle) {
+            return handle != null ? MethodHandles.insertArguments(handle, 2, false) : null;
+        }
+
+        private static MethodHandle findUnsnapshottedState() {
+            try {
+                MethodHandle handle = MethodHandles.publicLookup().findVirtual(Block.class, "getState",
+                    MethodType.methodType(BlockState.class, boolean.class));
+                return MethodHandles.insertArguments(handle, 1, false);
+            } catch (NoSuchMethodException | IllegalAccessException ignored) {
+                return null;
+            }
+        }
     }
 }
@@ -0,0 +1,237 @@
+package org.topiacube.topiaAntiCaveFinder.player;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.topiacube.topiaAntiCaveFinder.util.BlockPositions;
+import org.topiacube.topiaAntiCaveFinder.util.LongArrayQueue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+final class SectionOpacityCache {
+
+    private static final int MAX_SNAPSHOT_AGE_TICKS = 40;
+    private static final long[] EMPTY_SECTION = new long[64];
+    private static final byte UNKNOWN = 0;
+    private static final byte PASSABLE = 1;
+    private static final byte COLLIDABLE = 2;
+    // collision by material ordinal; racing writers always store the same answer
+    private static final byte[] COLLISION = new byte[Material.values().length];
+
+    // chunk snapshots are taken on the main thread, section bitmaps are built by whichever ray needs them first
+    private final ConcurrentHashMap<Integer, ConcurrentHashMap<Long, ChunkOpacity>> worlds = new ConcurrentHashMap<>();
+    // blocks changed inside captured chunks, patched into their bitmaps on the main thread
+    private final Map<Integer, PendingChanges> pendingChanges = new HashMap<>();
+
+    void capture(World world, int worldId, double centerX, double centerZ, double radius, int tick) {
+        applyChanges(worldId);
+        ConcurrentHashMap<Long, ChunkOpacity> chunks = worlds.computeIfAbsent(worldId, id -> new ConcurrentHashMap<>());
+        int minChunkX = (int) Math.floor((centerX - radius) / 16.0);
+        int maxChunkX = (int) Math.floor((centerX + radius) / 16.0);
+        int minChunkZ = (int) Math.floor((centerZ - radius) / 16.0);
+        int maxChunkZ = (int) Math.floor((centerZ + radius) / 16.0);
+        for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+            for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+                long key = chunkKey(chunkX, chunkZ);
+                ChunkOpacity existing = chunks.get(key);
+                if (existing != null && tick - existing.capturedTick <= MAX_SNAPSHOT_AGE_TICKS) {
+                    continue;
+                }
+                if (!world.isChunkLoaded(chunkX, chunkZ)) {
+                    continue;
+                }
+                ChunkSnapshot snapshot = world.getChunkAt(chunkX, chunkZ).getChunkSnapshot(false, false, false);
+                chunks.put(key, new ChunkOpacity(snapshot, world.getMinHeight(), world.getMaxHeight(), tick));
+            }
+        }
+    }
+
+    void markChanged(World world, int worldId, int x, int y, int z) {
+        // events fire before the world changes, so the block is read once the change has landed
+        ConcurrentHashMap<Long, ChunkOpacity> chunks = worlds.get(worldId);
+        if (chunks == null || !chunks.containsKey(chunkKey(x >> 4, z >> 4))) {
+            return;
+        }
+        pendingChanges.computeIfAbsent(worldId, id -> new PendingChanges(world))
+            .positions.addLast(BlockPositions.pack(x, y, z));
+    }
+
+    void invalidate(int worldId, int chunkX, int chunkZ) {
+        ConcurrentHashMap<Long, ChunkOpacity> chunks = worlds.get(worldId);
+        if (chunks != null) {
+            chunks.remove(chunkKey(chunkX, chunkZ));
+        }
+    }
+
+    void invalidateWorld(int worldId) {
+        worlds.remove(worldId);
+        pendingChanges.remove(worldId);
+    }
+
+    void expire(int tick) {
+        for (Integer worldId : pendingChanges.keySet()) {
+            applyChanges(worldId);
+        }
+        // twice the refresh age, so a computation still reading a snapshot it was scheduled with keeps it
+        for (ConcurrentHashMap<Long, ChunkOpacity> chunks : worlds.values()) {
+            chunks.values().removeIf(chunk -> tick - chunk.capturedTick > MAX_SNAPSHOT_AGE_TICKS * 2);
+        }
+    }
+
+    void clear() {
+        worlds.clear();
+        pendingChanges.clear();
+    }
+
+    View view(int worldId) {
+        ConcurrentHashMap<Long, ChunkOpacity> chunks = worlds.get(worldId);
+        return new View(chunks != null ? chunks : new ConcurrentHashMap<>());
+    }
+
+    private void applyChanges(int worldId) {
+        PendingChanges pending = pendingChanges.get(worldId);
+        if (pending == null) {
+            return;
+        }
+        ConcurrentHashMap<Long, ChunkOpacity> chunks = worlds.get(worldId);
+        LongArrayQueue positions = pending.positions;
+        while (!positions.isEmpty()) {
+            long position = positions.pollFirst();
+            int x = BlockPositions.unpackX(position);
+            int z = BlockPositions.unpackZ(position);
+            ChunkOpacity chunk = chunks != null ? chunks.get(chunkKey(x >> 4, z >> 4)) : null;
+            if (chunk == null || !pending.world.isChunkLoaded(x >> 4, z >> 4)) {
+                continue;
+            }
+            int y = BlockPositions.unpackY(position);
+            chunk.patch(x, y, z, blocksSight(pending.world.getBlockAt(x, y, z).getType()));
+        }
+    }
+
+    private static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    private static boolean blocksSight(Material type) {
+        // same blockers as the rayTraceBlocks call this replaced, which skipped passable blocks and stopped on any collision shape;
+        // snapshots carry no shapes, so a slab, fence or open door fills its whole voxel and keeps the mask a little longer
+        int ordinal = type.ordinal();
+        byte collision = COLLISION[ordinal];
+        if (collision == UNKNOWN) {
+            collision = type.isCollidable() ? COLLIDABLE : PASSABLE;
+            COLLISION[ordinal] = collision;
+        }
+        return collision == COLLIDABLE;
+    }
+
+    static final class View {
+        private final ConcurrentHashMap<Long, ChunkOpacity> chunks;
+        private long cachedKey;
+        private ChunkOpacity cachedChunk;
+        private boolean hasCached;
+
+        private View(ConcurrentHashMap<Long, ChunkOpacity> chunks) {
+            this.chunks = chunks;
+        }
+
+        boolean isOpaque(int x, int y, int z) {
+            long key = chunkKey(x >> 4, z >> 4);
+            if (!hasCached || key != cachedKey) {
+                cachedKey = key;
+                cachedChunk = chunks.get(key);
+                hasCached = true;
+            }
+            ChunkOpacity chunk = cachedChunk;
+            if (chunk == null) {
+                // a chunk without a snapshot hides what lies behind it, the same way a mask would
+                return true;
+            }
+            if (y < chunk.minY || y >= chunk.maxY) {
+                return false;
+            }
+            long[] bits = chunk.section((y - chunk.minY) >> 4);
+            int index = ((y & 15) << 8) | ((z & 15) << 4) | (x & 15);
+            return (bits[index >>> 6] & (1L << index)) != 0L;
+        }
+    }
+
+    private static final class ChunkOpacity {
+        private final ChunkSnapshot snapshot;
+        private final int minY;
+        private final int maxY;
+        private final int capturedTick;
+        private final AtomicReferenceArray<long[]> sections;
+
+        private ChunkOpacity(ChunkSnapshot snapshot, int minY, int maxY, int capturedTick) {
+            this.snapshot = snapshot;
+            this.minY = minY;
+            this.maxY = maxY;
+            this.capturedTick = capturedTick;
+            this.sections = new AtomicReferenceArray<>(Math.max(0, (maxY - minY + 15) >> 4));
+        }
+
+        long[] section(int index) {
+            long[] bits = sections.get(index);
+            if (bits == null) {
+                bits = build(index);
+                // a patch that landed while this was built from the older snapshot wins
+                if (!sections.compareAndSet(index, null, bits)) {
+                    bits = sections.get(index);
+                }
+            }
+            return bits;
+        }
+
+        void patch(int x, int y, int z, boolean opaque) {
+            // bitmaps are shared with rays in flight, so a changed one is replaced rather than written to
+            if (y < minY || y >= maxY) {
+                return;
+            }
+            int index = (y - minY) >> 4;
+            int bit = ((y & 15) << 8) | ((z & 15) << 4) | (x & 15);
+            long mask = 1L << bit;
+            while (true) {
+                long[] current = section(index);
+                if (((current[bit >>> 6] & mask) != 0L) == opaque) {
+                    return;
+                }
+                long[] patched = current.clone();
+                patched[bit >>> 6] ^= mask;
+                if (sections.compareAndSet(index, current, patched)) {
+                    return;
+                }
+            }
+        }
+
+        private long[] build(int index) {
+            if (snapshot.isSectionEmpty(index)) {
+                return EMPTY_SECTION;
+            }
+            long[] bits = new long[64];
+            int baseY = minY + (index << 4);
+            for (int y = 0; y < 16; y++) {
+                for (int z = 0; z < 16; z++) {
+                    for (int x = 0; x < 16; x++) {
+                        if (blocksSight(snapshot.getBlockType(x, baseY + y, z))) {
+                            int bit = (y << 8) | (z << 4) | x;
+                            bits[bit >>> 6] |= 1L << bit;
+                        }
+                    }
+                }
+            }
+            return bits;
+        }
+    }
+
+    private static final class PendingChanges {
+        private final World world;
+        private final LongArrayQueue positions = new LongArrayQueue();
+
+        private PendingChanges(World world) {
+            this.world = world;
+        }
+    }
+}
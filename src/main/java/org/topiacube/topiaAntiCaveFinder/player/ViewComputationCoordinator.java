@@ -4,9 +4,10 @@ import org.bukkit.entity.Player;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.topiacube.topiaAntiCaveFinder.config.PluginConfig;
 import org.topiacube.topiaAntiCaveFinder.mask.CaveMaskManager;
-import org.topiacube.topiaAntiCaveFinder.mask.TrackedBlock;
+import org.topiacube.topiaAntiCaveFinder.mask.TrackedBlockBuffer;
+import org.topiacube.topiaAntiCaveFinder.util.BlockPositions;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -23,15 +24,20 @@ final class ViewComputationCoordinator {
     private final JavaPlugin plugin;
     private final CaveMaskManager maskManager;
     private final PluginConfig config;
+    private final SectionOpacityCache opacityCache;
     private final ArrayBlockingQueue<ViewComputationResult> completedResults =
         new ArrayBlockingQueue<>(COMPLETED_RESULT_QUEUE_CAPACITY);
 
     private ExecutorService computationPool;
 
-    ViewComputationCoordinator(JavaPlugin plugin, CaveMaskManager maskManager, PluginConfig config) {
+    ViewComputationCoordinator(JavaPlugin plugin,
+                               CaveMaskManager maskManager,
+                               PluginConfig config,
+                               SectionOpacityCache opacityCache) {
         this.plugin = plugin;
         this.maskManager = maskManager;
         this.config = config;
+        this.opacityCache = opacityCache;
     }
 
     void start() {
@@ -59,9 +65,12 @@ final class ViewComputationCoordinator {
             return;
         }
         PlayerSnapshot snapshot = PlayerSnapshot.capture(player, config, currentTick);
-        ArrayList<TrackedBlock> buffer = session.borrowTrackedBlocksBuffer();
+        // every ray stays within the reveal distance of the eye, so only those chunks need a snapshot
+        opacityCache.capture(player.getWorld(), snapshot.worldId(), snapshot.eyeX(), snapshot.eyeZ(),
+            config.getMaxRevealDistance(), currentTick);
+        TrackedBlockBuffer candidates = session.borrowCandidateBuffer();
         try {
-            computationPool.submit(() -> compute(snapshot, session, buffer));
+            computationPool.submit(() -> compute(snapshot, session, candidates));
         } catch (RejectedExecutionException rejected) {
             handleComputationRejection(session, snapshot, "Failed to submit view computation task", rejected);
         }
@@ -71,15 +80,19 @@ final class ViewComputationCoordinator {
         return completedResults.poll();
     }
 
-    private void compute(PlayerSnapshot snapshot, PlayerViewSession session, ArrayList<TrackedBlock> buffer) {
+    private void compute(PlayerSnapshot snapshot, PlayerViewSession session, TrackedBlockBuffer candidates) {
         try {
-            maskManager.collectNearbyBlocks(snapshot.worldName(), snapshot.chunkX(), snapshot.chunkZ(), snapshot.chunkRadius(), buffer);
-            buffer.sort((a, b) -> Double.compare(snapshot.distanceSquared(a.getKey()), snapshot.distanceSquared(b.getKey())));
-            double[] distances = session.borrowDistanceBuffer(buffer.size());
-            for (int i = 0; i < buffer.size(); i++) {
-                distances[i] = snapshot.distanceSquared(buffer.get(i).getKey());
-            }
-            ViewComputationResult result = new ViewComputationResult(session, snapshot, buffer, distances, buffer.size());
+            // blocks outside the activation radius are skipped by the processor, so the query never collects them
+            double activationRadius = config.getMaskActivationRadius();
+            maskManager.collectNearestBlocks(snapshot.worldId(), snapshot.eyeX(), snapshot.eyeY(), snapshot.eyeZ(),
+                activationRadius, snapshot.chunkRadius(), PlayerViewProcessor.candidateBudget(config), candidates);
+            TrackedBlockBuffer sorted = session.borrowResultBuffer();
+            int size = sortByDistance(snapshot, session, candidates, sorted, activationRadius * activationRadius);
+            float[] distances = session.borrowDistanceBuffer(size);
+            boolean[] lineOfSight = session.borrowSightBuffer(size);
+            traceLineOfSight(snapshot, sorted.positions(), distances, lineOfSight, size);
+            ViewComputationResult result = new ViewComputationResult(session, snapshot, sorted.positions(), sorted.paletteIds(),
+                distances, lineOfSight, size);
             if (!enqueueCompletedResult(result)) {
                 handleComputationRejection(session, snapshot, "Completed results queue is full", null);
             }
@@ -91,6 +104,68 @@ final class ViewComputationCoordinator {
         }
     }
 
+    private static int sortByDistance(PlayerSnapshot snapshot,
+                                      PlayerViewSession session,
+                                      TrackedBlockBuffer candidates,
+                                      TrackedBlockBuffer sorted,
+                                      double radiusSquared) {
+        // each distance is computed once; a non-negative float sorts like its bit pattern, so keys are (distance, index)
+        int count = candidates.size();
+        long[] positions = candidates.positions();
+        int[] paletteIds = candidates.paletteIds();
+        long[] keys = session.borrowSortKeyBuffer(count);
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            long position = positions[i];
+            double distanceSquared = snapshot.distanceSquared(BlockPositions.unpackX(position),
+                BlockPositions.unpackY(position), BlockPositions.unpackZ(position));
+            if (distanceSquared <= radiusSquared) {
+                keys[kept++] = ((long) Float.floatToRawIntBits((float) distanceSquared) << 32) | i;
+            }
+        }
+        Arrays.sort(keys, 0, kept);
+        sorted.ensureCapacity(kept);
+        float[] distances = session.borrowDistanceBuffer(kept);
+        for (int i = 0; i < kept; i++) {
+            int index = (int) keys[i];
+            sorted.add(positions[index], paletteIds[index]);
+            distances[i] = Float.intBitsToFloat((int) (keys[i] >>> 32));
+        }
+        return kept;
+    }
+
+    private void traceLineOfSight(PlayerSnapshot snapshot,
+                                  long[] positions,
+                                  float[] distances,
+                                  boolean[] lineOfSight,
+                                  int size) {
+        // only candidates the processor would reveal by sight get a ray; the rest stay false
+        double minRevealDistance = config.getMinRevealDistance();
+        double maxRevealDistance = config.getMaxRevealDistance();
+        double minRevealDistanceSquared = minRevealDistance * minRevealDistance;
+        double maxRevealDistanceSquared = maxRevealDistance * maxRevealDistance;
+        double minDot = config.getRevealFovHalfAngleCos();
+        SectionOpacityCache.View view = opacityCache.view(snapshot.worldId());
+        for (int i = 0; i < size; i++) {
+            double distanceSquared = distances[i];
+            lineOfSight[i] = false;
+            if (distanceSquared <= minRevealDistanceSquared || distanceSquared > maxRevealDistanceSquared) {
+                continue;
+            }
+            long position = positions[i];
+            int x = BlockPositions.unpackX(position);
+            int y = BlockPositions.unpackY(position);
+            int z = BlockPositions.unpackZ(position);
+            double dx = (x + 0.5) - snapshot.eyeX();
+            double dy = (y + 0.5) - snapshot.eyeY();
+            double dz = (z + 0.5) - snapshot.eyeZ();
+            if (!VisibilityUtil.isWithinFov(snapshot.viewDirection(), dx, dy, dz, distanceSquared, minDot)) {
+                continue;
+            }
+            lineOfSight[i] = VoxelRaycaster.hasLineOfSight(view, snapshot.eyeX(), snapshot.eyeY(), snapshot.eyeZ(), x, y, z);
+        }
+    }
+
     private boolean enqueueCompletedResult(ViewComputationResult result) {
         if (completedResults.offer(result)) {
             return true;
@@ -0,0 +1,76 @@
+package org.topiacube.topiaAntiCaveFinder.player;
+
+final class VoxelRaycaster {
+
+    private static final double EPSILON = 1.0E-6;
+
+    private VoxelRaycaster() {
+    }
+
+    static boolean hasLineOfSight(SectionOpacityCache.View view,
+                                  double originX,
+                                  double originY,
+                                  double originZ,
+                                  int targetX,
+                                  int targetY,
+                                  int targetZ) {
+        // Amanatides-Woo traversal from the eye to the target's centre; the first solid voxel that is
+        // not the target blocks the view, the voxel holding the eye included
+        double dx = (targetX + 0.5) - originX;
+        double dy = (targetY + 0.5) - originY;
+        double dz = (targetZ + 0.5) - originZ;
+        double length = Math.sqrt((dx * dx) + (dy * dy) + (dz * dz));
+        if (length < EPSILON) {
+            return true;
+        }
+        dx /= length;
+        dy /= length;
+        dz /= length;
+
+        int x = (int) Math.floor(originX);
+        int y = (int) Math.floor(originY);
+        int z = (int) Math.floor(originZ);
+        int stepX = dx > 0.0 ? 1 : (dx < 0.0 ? -1 : 0);
+        int stepY = dy > 0.0 ? 1 : (dy < 0.0 ? -1 : 0);
+        int stepZ = dz > 0.0 ? 1 : (dz < 0.0 ? -1 : 0);
+        double deltaX = stepX != 0 ? Math.abs(1.0 / dx) : Double.POSITIVE_INFINITY;
+        double deltaY = stepY != 0 ? Math.abs(1.0 / dy) : Double.POSITIVE_INFINITY;
+        double deltaZ = stepZ != 0 ? Math.abs(1.0 / dz) : Double.POSITIVE_INFINITY;
+        double nextX = boundary(originX, x, stepX, deltaX);
+        double nextY = boundary(originY, y, stepY, deltaY);
+        double nextZ = boundary(originZ, z, stepZ, deltaZ);
+
+        // every step crosses one face, so the target is at most this many voxels away
+        int remaining = Math.abs(targetX - x) + Math.abs(targetY - y) + Math.abs(targetZ - z);
+        for (int step = 0; step <= remaining; step++) {
+            if (x == targetX && y == targetY && z == targetZ) {
+                return true;
+            }
+            if (view.isOpaque(x, y, z)) {
+                return false;
+            }
+            if (nextX <= nextY && nextX <= nextZ) {
+                x += stepX;
+                nextX += deltaX;
+            } else if (nextY <= nextZ) {
+                y += stepY;
+                nextY += deltaY;
+            } else {
+                z += stepZ;
+                nextZ += deltaZ;
+            }
+        }
+        // rounding walked the ray past the target's voxel without entering it
+        return true;
+    }
+
+    private static double boundary(double origin, int voxel, int step, double delta) {
+        if (step > 0) {
+            return (voxel + 1 - origin) * delta;
+        }
+        if (step < 0) {
+            return (origin - voxel) * delta;
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+}
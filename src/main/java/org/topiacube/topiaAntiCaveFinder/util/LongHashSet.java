@@ -28,6 +28,10 @@ public final class LongHashSet {
         return true;
     }
 
+    public boolean contains(long value) {
+        return table[probe(value, table)] == value;
+    }
+
     public void clear() {
         Arrays.fill(table, EMPTY);
         size = 0;
@@ -0,0 +1,121 @@
+package org.topiacube.topiaAntiCaveFinder.util;
+
+import java.util.Arrays;
+
+public final class LongIntHashMap {
+    public static final int NO_VALUE = Integer.MIN_VALUE;
+
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final float LOAD_FACTOR = 0.7f;
+
+    private long[] keys = new long[32];
+    private int[] values = new int[32];
+    private int size;
+    private int maxSize = calculateMaxSize(keys.length);
+
+    public LongIntHashMap() {
+        Arrays.fill(keys, EMPTY);
+    }
+
+    public int get(long key) {
+        int index = probe(key, keys);
+        return keys[index] == key ? values[index] : NO_VALUE;
+    }
+
+    public void put(long key, int value) {
+        if ((size + 1) > maxSize) {
+            expand();
+        }
+        int index = probe(key, keys);
+        if (keys[index] != key) {
+            keys[index] = key;
+            size++;
+        }
+        values[index] = value;
+    }
+
+    public boolean remove(long key) {
+        int index = probe(key, keys);
+        if (keys[index] != key) {
+            return false;
+        }
+        shiftKeys(index);
+        size--;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    private void expand() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        int newCapacity = oldKeys.length << 1;
+        keys = new long[newCapacity];
+        values = new int[newCapacity];
+        Arrays.fill(keys, EMPTY);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int index = probe(oldKeys[i], keys);
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+        maxSize = calculateMaxSize(newCapacity);
+    }
+
+    private void shiftKeys(int start) {
+        // backward shift deletion keeps probe chains intact without tombstones
+        int mask = keys.length - 1;
+        int pos = start;
+        while (true) {
+            pos = (pos + 1) & mask;
+            long current = keys[pos];
+            if (current == EMPTY) {
+                keys[start] = EMPTY;
+                return;
+            }
+            int slot = mix(current) & mask;
+            if (start <= pos ? (start >= slot || slot > pos) : (start >= slot && slot > pos)) {
+                keys[start] = current;
+                values[start] = values[pos];
+                start = pos;
+            }
+        }
+    }
+
+    private int probe(long key, long[] target) {
+        int mask = target.length - 1;
+        int index = mix(key) & mask;
+        while (true) {
+            long existing = target[index];
+            if (existing == EMPTY || existing == key) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    private int calculateMaxSize(int capacity) {
+        return Math.max(1, (int) (capacity * LOAD_FACTOR));
+    }
+
+    private int mix(long value) {
+        value ^= (value >>> 33);
+        value *= 0xff51afd7ed558ccdL;
+        value ^= (value >>> 33);
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= (value >>> 33);
+        return (int) value;
+    }
+}
@@ -0,0 +1,107 @@
+package org.topiacube.topiaAntiCaveFinder.util;
+
+public final class TimingWheel {
+    private static final int SLOT_COUNT = 64;
+    private static final int SLOT_MASK = SLOT_COUNT - 1;
+    private static final int INITIAL_SLOT_CAPACITY = 8;
+
+    // each slot holds the entries whose deadline hashes to it; deadlines more than a lap away just stay put
+    private final long[][] slotKeys = new long[SLOT_COUNT][];
+    private final int[][] slotDeadlines = new int[SLOT_COUNT][];
+    private final int[] slotSizes = new int[SLOT_COUNT];
+    private long cursor = Integer.MIN_VALUE;
+    private int size;
+
+    private long[] expiredKeys = new long[16];
+    private int[] expiredDeadlines = new int[16];
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void schedule(long key, int deadline) {
+        // a deadline the cursor already passed goes where the next poll starts
+        int slot = (int) (Math.max(deadline, cursor) & SLOT_MASK);
+        int slotSize = slotSizes[slot];
+        long[] keys = slotKeys[slot];
+        if (keys == null || slotSize == keys.length) {
+            int capacity = keys == null ? INITIAL_SLOT_CAPACITY : slotSize << 1;
+            slotKeys[slot] = keys = copyOf(keys, capacity);
+            slotDeadlines[slot] = copyOf(slotDeadlines[slot], capacity);
+        }
+        keys[slotSize] = key;
+        slotDeadlines[slot][slotSize] = deadline;
+        slotSizes[slot] = slotSize + 1;
+        size++;
+    }
+
+    public void poll(int tick, ExpiryConsumer consumer) {
+        // hands out every entry whose deadline is before tick; the consumer may schedule again
+        long from = cursor;
+        cursor = tick;
+        if (size == 0 || from >= tick) {
+            return;
+        }
+        int slots = (int) Math.min(SLOT_COUNT, (long) tick - from);
+        int expired = 0;
+        for (int step = 0; step < slots; step++) {
+            int slot = (int) ((from + step) & SLOT_MASK);
+            long[] keys = slotKeys[slot];
+            int[] deadlines = slotDeadlines[slot];
+            int slotSize = slotSizes[slot];
+            int i = 0;
+            while (i < slotSize) {
+                if (deadlines[i] >= tick) {
+                    i++;
+                    continue;
+                }
+                if (expired == expiredKeys.length) {
+                    expiredKeys = copyOf(expiredKeys, expired << 1);
+                    expiredDeadlines = copyOf(expiredDeadlines, expired << 1);
+                }
+                expiredKeys[expired] = keys[i];
+                expiredDeadlines[expired++] = deadlines[i];
+                slotSize--;
+                keys[i] = keys[slotSize];
+                deadlines[i] = deadlines[slotSize];
+            }
+            size -= slotSizes[slot] - slotSize;
+            slotSizes[slot] = slotSize;
+        }
+        for (int i = 0; i < expired; i++) {
+            consumer.expire(expiredKeys[i], expiredDeadlines[i]);
+        }
+    }
+
+    public void clear() {
+        for (int slot = 0; slot < SLOT_COUNT; slot++) {
+            slotSizes[slot] = 0;
+        }
+        size = 0;
+    }
+
+    private static long[] copyOf(long[] source, int capacity) {
+        long[] copy = new long[capacity];
+        if (source != null) {
+            System.arraycopy(source, 0, copy, 0, Math.min(source.length, capacity));
+        }
+        return copy;
+    }
+
+    private static int[] copyOf(int[] source, int capacity) {
+        int[] copy = new int[capacity];
+        if (source != null) {
+            System.arraycopy(source, 0, copy, 0, Math.min(source.length, capacity));
+        }
+        return copy;
+    }
+
+    @FunctionalInterface
+    public interface ExpiryConsumer {
+        void expire(long key, int deadline);
+    }
+}